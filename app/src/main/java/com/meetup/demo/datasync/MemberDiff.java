@@ -0,0 +1,227 @@
+package com.meetup.demo.datasync;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.meetup.demo.datasync.model.Member;
+
+/**
+ * The adapter notifications that turn one run of members into another, matched by `Member.id`,
+ * so a reload only moves and rebinds the rows that actually changed instead of
+ * `notifyDataSetChanged()`.  Plain Java until `dispatchTo`, so `compute` can run off the UI
+ * thread.
+ *
+ * Members kept in the same order are found with Myers' O((N+M)D) diff.  Every other member of
+ * the old run is removed and every other one of the new run inserted, except members in both,
+ * which are moved instead.  Kept and moved members that aren't `equals` are changed.
+ *
+ * Ids must be unique within each run.
+ */
+final class MemberDiff {
+    enum Type { INSERT, REMOVE, MOVE, CHANGE }
+
+    static final class Op {
+        final Type type;
+        // relative to the start of the run, in the list as it is when this op is applied
+        final int position;
+        // items inserted or removed, or the position moved to
+        final int countOrTo;
+
+        Op(Type type, int position, int countOrTo) {
+            this.type = type;
+            this.position = position;
+            this.countOrTo = countOrTo;
+        }
+
+        @Override
+        public String toString() {
+            return type + "(" + position + ", " + countOrTo + ")";
+        }
+    }
+
+    final List<Op> ops;
+
+    private MemberDiff(List<Op> ops) {
+        this.ops = ops;
+    }
+
+    boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    /**
+     * @return rows inserted less rows removed
+     */
+    int countChange() {
+        int change = 0;
+        for (Op op : ops) {
+            if (op.type == Type.INSERT) {
+                change += op.countOrTo;
+            } else if (op.type == Type.REMOVE) {
+                change -= op.countOrTo;
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Applies the ops, in order, as notifications for a run starting at adapter position
+     * `offset`.
+     */
+    void dispatchTo(RecyclerView.Adapter<?> adapter, int offset) {
+        for (Op op : ops) {
+            switch (op.type) {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(offset + op.position, op.countOrTo);
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(offset + op.position, op.countOrTo);
+                    break;
+                case MOVE:
+                    adapter.notifyItemMoved(offset + op.position, offset + op.countOrTo);
+                    break;
+                case CHANGE:
+                    adapter.notifyItemChanged(offset + op.position);
+                    break;
+            }
+        }
+    }
+
+    static MemberDiff compute(List<Member> oldMembers, List<Member> newMembers) {
+        int n = oldMembers.size();
+        int m = newMembers.size();
+        // index of each kept member in the other run, or -1
+        int[] oldToNew = new int[n];
+        int[] newToOld = new int[m];
+        Arrays.fill(oldToNew, -1);
+        Arrays.fill(newToOld, -1);
+        matchInOrder(oldMembers, newMembers, oldToNew, newToOld);
+
+        // members in both runs that aren't kept in order are moved
+        Map<Long, Integer> unmatchedNew = new HashMap<>();
+        for (int j = 0; j < m; j++) {
+            if (newToOld[j] < 0) {
+                unmatchedNew.put(newMembers.get(j).id, j);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (oldToNew[i] < 0) {
+                Integer j = unmatchedNew.get(oldMembers.get(i).id);
+                if (j != null) {
+                    oldToNew[i] = j;
+                    newToOld[j] = i;
+                }
+            }
+        }
+
+        List<Op> ops = new ArrayList<>();
+        // ids in the list as the ops so far leave it
+        List<Long> work = new ArrayList<>(n);
+        for (Member member : oldMembers) {
+            work.add(member.id);
+        }
+        // removals, last first so earlier positions stay put
+        for (int i = n - 1; i >= 0; ) {
+            if (oldToNew[i] >= 0) {
+                i--;
+                continue;
+            }
+            int end = i;
+            while (i >= 0 && oldToNew[i] < 0) {
+                work.remove(i--);
+            }
+            ops.add(new Op(Type.REMOVE, i + 1, end - i));
+        }
+        // moves, placing the new run's members front to back
+        int placed = 0;
+        for (int j = 0; j < m; j++) {
+            if (newToOld[j] < 0) {
+                continue;
+            }
+            long id = newMembers.get(j).id;
+            if (work.get(placed) != id) {
+                int from = work.indexOf(id);
+                work.add(placed, work.remove(from));
+                ops.add(new Op(Type.MOVE, from, placed));
+            }
+            placed++;
+        }
+        // insertions, first first now that everything else is in order
+        for (int j = 0; j < m; ) {
+            if (newToOld[j] >= 0) {
+                j++;
+                continue;
+            }
+            int start = j;
+            while (j < m && newToOld[j] < 0) {
+                j++;
+            }
+            ops.add(new Op(Type.INSERT, start, j - start));
+        }
+        for (int j = 0; j < m; j++) {
+            int i = newToOld[j];
+            if (i >= 0 && !oldMembers.get(i).equals(newMembers.get(j))) {
+                ops.add(new Op(Type.CHANGE, j, 1));
+            }
+        }
+        return new MemberDiff(ops);
+    }
+
+    // fills in the longest run of ids common to both, in order, with Myers' greedy algorithm
+    private static void matchInOrder(List<Member> a, List<Member> b, int[] aToB, int[] bToA) {
+        int n = a.size();
+        int m = b.size();
+        int max = n + m;
+        // furthest x reached on each diagonal k = x - y, offset by `max`; kept per d to backtrack
+        int[] v = new int[2 * max + 2];
+        List<int[]> trace = new ArrayList<>();
+        int found = -1;
+        for (int d = 0; d <= max && found < 0; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && v[max + k - 1] < v[max + k + 1] ?
+                        v[max + k + 1] :
+                        v[max + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.get(x).id == b.get(y).id) {
+                    x++;
+                    y++;
+                }
+                v[max + k] = x;
+                if (x >= n && y >= m) {
+                    found = d;
+                    break;
+                }
+            }
+            trace.add(v.clone());
+        }
+        // walk back from the end; each step is an edit followed by a diagonal run of matches
+        int x = n;
+        int y = m;
+        for (int d = found; d >= 0; d--) {
+            int prevX = 0;
+            int prevY = 0;
+            if (d > 0) {
+                int[] prev = trace.get(d - 1);
+                int k = x - y;
+                int prevK = k == -d || k != d && prev[max + k - 1] < prev[max + k + 1] ?
+                        k + 1 :
+                        k - 1;
+                prevX = prev[max + prevK];
+                prevY = prevX - prevK;
+            }
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                aToB[x] = y;
+                bToA[y] = x;
+            }
+            x = prevX;
+            y = prevY;
+        }
+    }
+}
@@ -2,12 +2,17 @@ package com.meetup.demo.datasync;
 
 import android.content.Context;
 import android.support.v7.widget.RecyclerView;
+import android.util.Pair;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -15,20 +20,33 @@ import butterknife.ButterKnife;
 import butterknife.InjectView;
 import rx.Observable;
 import rx.Scheduler;
-import rx.Subscription;
 import rx.subjects.PublishSubject;
 import rx.subscriptions.CompositeSubscription;
 import rx.subscriptions.Subscriptions;
 
 import com.meetup.demo.datasync.application.DemoApplication;
 import com.meetup.demo.datasync.model.Member;
+import com.meetup.util.Metrics;
 
 /**
  * A RecyclerView.Adapter powered by `PaginationCache`.  The fact that data is fetched in pages
  * is abstracted away so that we can simply bind a Member to a View by absolute position.
+ *
+ * Rows bound before their page arrives wait on that page.  One subscription to the pages that
+ * resolve shows all the rows waiting on a page at once, so a page costs one UI-thread message
+ * however many rows it fills.
+ *
+ * While the total is unknown, the list is laid out with `PaginatedMembers`' estimate of it, each
+ * row a placeholder until its page arrives.  The row count only changes through
+ * `setItemCount(int)` and `reconcileItemCount()`, on the UI thread, so it always agrees with the
+ * notifications the RecyclerView got, however the total changes in the background.
  */
 public class MembersAdapter extends RecyclerView.Adapter<MembersAdapter.ViewHolder> {
     @Inject @Named("ui") Scheduler uiScheduler;
+    @Inject Metrics metrics;
+
+    // time from binding a row to showing its member; 0 when it was cached
+    private final Metrics.Histogram bindToShowMillis;
 
     // data source
     private PaginatedMembers members;
@@ -36,12 +54,23 @@ public class MembersAdapter extends RecyclerView.Adapter<MembersAdapter.ViewHold
     // subscriptions to data source
     private CompositeSubscription subs = Subscriptions.from();
 
+    // rows laid out, the total or an estimate of it.  UI thread only
+    private int itemCount;
+
+    // rows waiting for their page to resolve, by page.  UI thread only
+    private final SparseArray<List<ViewHolder>> waiting = new SparseArray<>();
+
     // Member click events exposed to containing activity to handle
     private PublishSubject<Member> memberClicks = PublishSubject.create();
 
     public MembersAdapter(Context context, PaginatedMembers members) {
         DemoApplication.component(context).inject(this);
         this.members = members;
+        this.bindToShowMillis = metrics.histogram("adapter.bindToShowMillis");
+        this.itemCount = Math.max(0, members.getEstimatedTotal());
+        subs.add(members.resolvedPages()
+                .observeOn(uiScheduler)
+                .subscribe(this::onPageResolved));
     }
 
     // emits Member that was clicked
@@ -52,6 +81,7 @@ public class MembersAdapter extends RecyclerView.Adapter<MembersAdapter.ViewHold
     // should call this in `onDestroy`
     public void unsubscribe() {
         subs.unsubscribe();
+        waiting.clear();
     }
 
     @Override
@@ -63,26 +93,99 @@ public class MembersAdapter extends RecyclerView.Adapter<MembersAdapter.ViewHold
 
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        // first, hide/reset view
+        // the previous tenant may still be waiting for its page
+        stopWaiting(holder);
+
+        // fast path: page already resolved, nothing to wait for
+        Member member = members.getOrLoad(position);
+        if (member != null) {
+            bindToShowMillis.record(0);
+            holder.show(member);
+            return;
+        }
+
+        // hide/reset view until the page arrives
         holder.hide();
+        holder.boundAt = uiScheduler.now();
+        holder.waitingPage = position / members.getPageSize();
+        List<ViewHolder> holders = waiting.get(holder.waitingPage);
+        if (holders == null) {
+            holders = new ArrayList<>();
+            waiting.put(holder.waitingPage, holders);
+        }
+        holders.add(holder);
+    }
 
-        // cleanup previous tenant's subscription
-        subs.remove(holder.subscription);
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        stopWaiting(holder);
+    }
 
-        // subscribe to member at `position` from `members` data source and
-        // show when we receive it
-        holder.subscription = members.get(position)
-                .observeOn(uiScheduler)
-                .subscribe(holder::show);
+    private void stopWaiting(ViewHolder holder) {
+        if (holder.waitingPage == -1) {
+            return;
+        }
+        List<ViewHolder> holders = waiting.get(holder.waitingPage);
+        holders.remove(holder);
+        if (holders.isEmpty()) {
+            waiting.remove(holder.waitingPage);
+        }
+        holder.waitingPage = -1;
+    }
 
-        // add subscription for global cleanup
-        subs.add(holder.subscription);
+    // show every row waiting on the page, in one pass
+    void onPageResolved(Pair<Integer, List<Member>> resolved) {
+        int page = resolved.first;
+        List<Member> items = resolved.second;
+        List<ViewHolder> holders = waiting.get(page);
+        if (holders == null) {
+            return;
+        }
+        waiting.remove(page);
+        int pageSize = members.getPageSize();
+        long now = uiScheduler.now();
+        for (ViewHolder holder : holders) {
+            holder.waitingPage = -1;
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                // about to be rebound anyway
+                continue;
+            }
+            if (position / pageSize != page) {
+                // shifted onto another page by an insert or remove since it was bound
+                onBindViewHolder(holder, position);
+            } else if (position % pageSize < items.size()) {
+                bindToShowMillis.record(now - holder.boundAt);
+                holder.show(items.get(position % pageSize));
+            }
+        }
     }
 
     @Override
     public int getItemCount() {
-        // `members` total will be -1 if undetermined
-        return Math.max(0, members.getTotal());
+        return itemCount;
+    }
+
+    /**
+     * Changes the row count without notifying; the caller notifies about the rows that changed,
+     * e.g. with `notifyDataSetChanged()`.
+     */
+    public void setItemCount(int itemCount) {
+        this.itemCount = Math.max(0, itemCount);
+    }
+
+    /**
+     * Adopts `members`' total, or its estimate, as the row count, adding or removing rows at the
+     * end.  For when the real total replaces an estimate.
+     */
+    public void reconcileItemCount() {
+        int oldCount = itemCount;
+        itemCount = Math.max(0, members.getEstimatedTotal());
+        if (itemCount > oldCount) {
+            notifyItemRangeInserted(oldCount, itemCount - oldCount);
+        } else if (itemCount < oldCount) {
+            notifyItemRangeRemoved(itemCount, oldCount - itemCount);
+        }
     }
 
     @Override
@@ -97,7 +200,9 @@ public class MembersAdapter extends RecyclerView.Adapter<MembersAdapter.ViewHold
         @InjectView(R.id.member_color) View colorView;
         @InjectView(R.id.progress) ProgressBar progressBar;
 
-        Subscription subscription = Subscriptions.empty();
+        // page this row is waiting on, or -1
+        int waitingPage = -1;
+        long boundAt;
 
         public ViewHolder(View itemView) {
             super(itemView);
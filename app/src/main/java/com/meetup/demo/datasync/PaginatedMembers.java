@@ -2,15 +2,32 @@ package com.meetup.demo.datasync;
 
 import android.util.Pair;
 
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
 
 import rx.Observable;
+import rx.Scheduler;
 import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
 
 import com.meetup.demo.datasync.api.DemoApi;
+import com.meetup.demo.datasync.api.DemoResponse;
 import com.meetup.demo.datasync.model.Member;
+import com.meetup.demo.datasync.model.MemberChange;
+import com.meetup.util.DiskPageCache;
 import com.meetup.util.PaginationCache;
+import com.meetup.util.VelocityPrefetchStrategy;
 
 /**
  * This is a `PaginationCache` of `Member`s but extends it further by tracking
@@ -18,21 +35,92 @@ import com.meetup.util.PaginationCache;
  * page fetch request.  Clients of `PaginatedMembers` can receive the `total`
  * both via pull (`getTotal()`) or push (`newTotals()`).
  *
- * Total will be -1 when undetermined.
+ * Pages are also persisted to an optional `DiskPageCache`.  A page on disk is emitted right
+ * away, then replaced by the network copy if that differs (see `itemRefreshes()`).  A disk copy
+ * also provides the total until the network reports one, so a cold start can render the list
+ * before any request completes.  If the network reports a different total, `newTotals()` flags
+ * the list as outdated as usual and the disk tier drops its other, now shifted, pages.
+ *
+ * Rather than reloading everything when the list is outdated, clients can `sync()` and
+ * `applySync(Sync)`: cached pages are patched in place with the server's change log, and only
+ * pages that can't be patched are dropped.
+ *
+ * Pages are refetched from the network in the background once they're `PAGE_TTL_MILLIS` old,
+ * while the cached copy keeps being shown; `revalidateAll()` does so on demand.
+ *
+ * Cached members are also indexed by id, so an edit known only by its `Member`, e.g. from a
+ * `MemberUpdate`, can be applied in place with `replaceMember(Member)`.
+ *
+ * Total will be -1 when undetermined.  Until it's determined, `getEstimatedTotal()` offers the
+ * last total known, or the one saved with the pages on disk, so clients can lay out placeholder
+ * rows instead of an empty list.
  */
 public class PaginatedMembers extends PaginationCache<Member> {
     private static final int PAGE_SIZE = 50;
     private static final int PREFETCH_THRESHOLD = 10;
-    private static final int MAX_PAGES_CACHED = 3;
+    private static final int MAX_PAGES_AHEAD = 3;
+    // a hard cap; the memory budget normally bounds the cache first
+    private static final int MAX_PAGES_CACHED = 64;
+    // rough heap cost of a cached `Member` and its name, excluding the name's characters
+    private static final long MEMBER_OVERHEAD_BYTES = 80;
+    // matches `DemoApiBase`'s artificial latency
+    private static final long PREFETCH_LOOKAHEAD_MILLIS = 1500;
+    private static final long PAGE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
     private final DemoApi api;
+    @Nullable private final DiskPageCache<Member> diskCache;
     private final PublishSubject<Pair<Integer, Integer>> newTotals = PublishSubject.create();
+    // fired from whichever fetch resolves a page, possibly several at once
+    private final Subject<List<Integer>, List<Integer>> itemRefreshes =
+            PublishSubject.<List<Integer>>create().toSerialized();
+    // pages can resolve on several threads at once
+    private final Subject<Pair<Integer, List<Member>>, Pair<Integer, List<Member>>> resolvedPages =
+            PublishSubject.<Pair<Integer, List<Member>>>create().toSerialized();
     private final AtomicInteger currentTotal;
+    // last total determined, kept through `resetTotal()`
+    private final AtomicInteger lastTotal = new AtomicInteger(-1);
+    // list version each page was fetched at, for pages fetched from the network
+    private final Map<Integer, Long> pageVersions = new ConcurrentHashMap<>();
+    // positions of each member in cached pages, by id; more than one if pages fetched at
+    // different versions overlap.  Guarded by itself
+    private final SetMultimap<Long, Integer> positions = HashMultimap.create();
+    // edits the pages on disk may predate, by id, until the network returns the member again
+    private final Map<Long, Member> diskEdits = new ConcurrentHashMap<>();
+
+    /**
+     * Changes fetched by `sync()`, to be applied with `applySync(Sync)`.
+     */
+    public static class Sync {
+        final long fromVersion;
+        final long toVersion;
+        final int total;
+        public final List<MemberChange> changes;
 
-    public PaginatedMembers(DemoApi api) {
-        super(PAGE_SIZE, PREFETCH_THRESHOLD, MAX_PAGES_CACHED);
+        Sync(long fromVersion, DemoResponse<List<MemberChange>> response) {
+            this.fromVersion = fromVersion;
+            this.toVersion = response.meta.getLong("version", -1);
+            this.total = response.meta.getInt("totalMembers", -1);
+            this.changes = response.results;
+        }
+    }
+
+    /**
+     * @param diskCache Optional disk tier
+     * @param clock Used to measure scroll speed for prefetching and the age of pages
+     * @param maxBytes Memory budget for cached pages, see `weigh(Member)`
+     */
+    public PaginatedMembers(DemoApi api, @Nullable DiskPageCache<Member> diskCache,
+                            Scheduler clock, long maxBytes) {
+        super(PAGE_SIZE,
+                new VelocityPrefetchStrategy(PREFETCH_THRESHOLD, MAX_PAGES_AHEAD,
+                        PREFETCH_LOOKAHEAD_MILLIS, clock),
+                MAX_PAGES_CACHED,
+                PAGE_TTL_MILLIS,
+                clock);
         this.api = api;
+        this.diskCache = diskCache;
         this.currentTotal = new AtomicInteger(-1);
+        setMaxWeight(maxBytes);
     }
 
     public void resetTotal() {
@@ -48,20 +136,287 @@ public class PaginatedMembers extends PaginationCache<Member> {
         return getTotal() != -1;
     }
 
+    /**
+     * The total if determined, otherwise the last one known, -1 if there's nothing to go on.
+     * Only an estimate: the list may have changed since.
+     */
+    public int getEstimatedTotal() {
+        int total = getTotal();
+        return total != -1 ? total : lastTotal.get();
+    }
+
+    /**
+     * Falls back to the total saved with the pages on disk if no total was ever known, e.g. on
+     * a cold start.  Emits `getEstimatedTotal()` once that's done.
+     */
+    public Observable<Integer> loadEstimatedTotal() {
+        if (diskCache == null || lastTotal.get() != -1) {
+            return Observable.defer(() -> Observable.just(getEstimatedTotal()));
+        }
+        return diskCache.readTotal()
+                .map(persisted -> {
+                    lastTotal.compareAndSet(-1, persisted);
+                    return getEstimatedTotal();
+                });
+    }
+
     public Observable<Pair<Integer, Integer>> newTotals() {
         return newTotals.asObservable();
     }
 
+    /**
+     * Emits the positions, in order, whose member changed when a page that was already shown,
+     * e.g. from disk or before it went stale, resolves again.
+     */
+    public Observable<List<Integer>> itemRefreshes() {
+        return itemRefreshes.asObservable();
+    }
+
+    /**
+     * Emits each page number with its members whenever a page resolves, for rows waiting on it
+     * after `getOrLoad(int)` came back empty.
+     */
+    public Observable<Pair<Integer, List<Member>>> resolvedPages() {
+        return resolvedPages.asObservable();
+    }
+
+    /**
+     * Fetches the changes since the version most cached pages were fetched at.  Errors if no
+     * page came from the network yet, or the server can't go back that far; reload instead.
+     */
+    public Observable<Sync> sync() {
+        return Observable.defer(() -> {
+            long version = baseVersion();
+            if (version == -1) {
+                return Observable.error(new IllegalStateException("nothing to sync"));
+            }
+            return api.changesSince(version).map(response -> new Sync(version, response));
+        });
+    }
+
+    /**
+     * Patches cached pages with `sync.changes` and adopts the new total without flagging the
+     * list as outdated.  Pages that can't be patched, including any fetched at a version other
+     * than the one synced from, are dropped and will reload on next access.
+     *
+     * Call on the thread that reads `getTotal()` for display, and notify about `sync.changes`
+     * there too.
+     *
+     * @return the pages dropped
+     */
+    public List<Integer> applySync(Sync sync) {
+        List<Integer> dropped = new ArrayList<>(invalidatePages(page -> {
+            Long version = pageVersions.get(page);
+            return version == null || version != sync.fromVersion;
+        }));
+        for (MemberChange change : sync.changes) {
+            switch (change.type) {
+                case INSERT:
+                    dropped.addAll(insert(change.index, change.member));
+                    break;
+                case DELETE:
+                    dropped.addAll(remove(change.index));
+                    break;
+                case RENAME:
+                    replace(change.index, change.member);
+                    break;
+            }
+        }
+        for (Map.Entry<Integer, Long> entry : pageVersions.entrySet()) {
+            if (entry.getValue() == sync.fromVersion) {
+                entry.setValue(sync.toVersion);
+            }
+        }
+        currentTotal.set(sync.total);
+        if (sync.total != -1) {
+            lastTotal.set(sync.total);
+        }
+        return dropped;
+    }
+
+    /**
+     * @return Positions of the member with `id` in cached, resolved pages
+     */
+    public List<Integer> positionsOf(long id) {
+        synchronized (positions) {
+            return new ArrayList<>(positions.get(id));
+        }
+    }
+
+    /**
+     * Replaces the cached copies of `member`, found by id, e.g. after it was edited elsewhere.
+     * Pages that aren't cached will load the edit from the network anyway; if they're read from
+     * disk first, e.g. after the process was restarted, the edit is applied to them as they load.
+     *
+     * @return Positions replaced, none if the member isn't cached
+     */
+    public List<Integer> replaceMember(Member member) {
+        if (diskCache != null) {
+            diskEdits.put(member.id, member);
+        }
+        List<Integer> replaced = positionsOf(member.id);
+        for (int position : replaced) {
+            replace(position, member);
+        }
+        return replaced;
+    }
+
+    // the version most cached pages were fetched at, newest on ties
+    private long baseVersion() {
+        Map<Long, Integer> counts = new HashMap<>();
+        long base = -1;
+        int baseCount = 0;
+        for (Map.Entry<Integer, Long> entry : pageVersions.entrySet()) {
+            if (!isPageResolved(entry.getKey())) {
+                // evicted since
+                pageVersions.remove(entry.getKey());
+                continue;
+            }
+            long version = entry.getValue();
+            Integer count = counts.get(version);
+            count = count == null ? 1 : count + 1;
+            counts.put(version, count);
+            if (count > baseCount || count == baseCount && version > base) {
+                base = version;
+                baseCount = count;
+            }
+        }
+        return base;
+    }
+
+    @Override
+    public void invalidateAll() {
+        super.invalidateAll();
+        pageVersions.clear();
+    }
+
     @Override
     public Observable<List<Member>> fetchPage(int page) {
+        Observable<List<Member>> network = fromNetwork(page);
+        if (diskCache == null) {
+            return Observable.defer(() -> {
+                pageVersions.remove(page);
+                return network;
+            });
+        }
+        return Observable.defer(() -> {
+            pageVersions.remove(page);
+            AtomicReference<List<Member>> fromDisk = new AtomicReference<>();
+            return diskCache.read(page)
+                    .doOnNext(cached -> {
+                        fromDisk.set(cached.items);
+                        if (!hasTotal()) {
+                            updateTotal(cached.total);
+                        }
+                    })
+                    .map(cached -> withDiskEdits(cached.items))
+                    .concatWith(network
+                            // keep showing the disk copy if the network is unavailable
+                            .onErrorResumeNext(error -> fromDisk.get() != null ?
+                                    Observable.empty() :
+                                    Observable.error(error))
+                            .filter(items -> !items.equals(fromDisk.get())));
+        });
+    }
+
+    // `items` from disk, with the edits made since they were written
+    private List<Member> withDiskEdits(List<Member> items) {
+        if (diskEdits.isEmpty()) {
+            return items;
+        }
+        List<Member> edited = items;
+        for (int i = 0; i < items.size(); i++) {
+            Member edit = diskEdits.get(items.get(i).id);
+            if (edit != null && !edit.equals(items.get(i))) {
+                if (edited == items) {
+                    edited = new ArrayList<>(items);
+                }
+                edited.set(i, edit);
+            }
+        }
+        return edited;
+    }
+
+    // the disk copy is never newer than what's cached
+    @Override
+    protected Observable<List<Member>> refetchPage(int page) {
+        return fromNetwork(page);
+    }
+
+    private Observable<List<Member>> fromNetwork(int page) {
         return api.members(page, getPageSize())
                 .doOnNext(response -> {
+                    pageVersions.put(page, response.meta.getLong("version", -1));
+                    if (!diskEdits.isEmpty()) {
+                        // newer than the edits, and about to be written to disk
+                        for (Member member : response.results) {
+                            diskEdits.remove(member.id);
+                        }
+                    }
                     int newTotal = response.meta.getInt("totalMembers", -1);
-                    int oldTotal = currentTotal.getAndSet(newTotal);
-                    if (oldTotal != newTotal) {
-                        newTotals.onNext(new Pair<>(oldTotal, newTotal));
+                    updateTotal(newTotal);
+                    if (diskCache != null && newTotal != -1) {
+                        diskCache.write(page, response.results, newTotal);
                     }
                 })
                 .map(response -> response.results);
     }
+
+    // estimated bytes on the heap
+    @Override
+    protected long weigh(Member member) {
+        return MEMBER_OVERHEAD_BYTES + 2 * member.name.length();
+    }
+
+    @Override
+    protected void onPageResolved(int page, List<Member> items, boolean refreshed) {
+        resolvedPages.onNext(Pair.create(page, items));
+    }
+
+    @Override
+    protected void onPageRefreshed(int page, List<Integer> offsets) {
+        int start = page * getPageSize();
+        List<Integer> refreshed = new ArrayList<>(offsets.size());
+        for (int offset : offsets) {
+            refreshed.add(start + offset);
+        }
+        itemRefreshes.onNext(refreshed);
+    }
+
+    @Override
+    protected void onPageItemsChanged(int page, @Nullable List<Member> oldItems,
+                                      @Nullable List<Member> newItems) {
+        int start = page * getPageSize();
+        synchronized (positions) {
+            if (oldItems != null) {
+                for (int i = 0; i < oldItems.size(); i++) {
+                    positions.remove(oldItems.get(i).id, start + i);
+                }
+            }
+            if (newItems != null) {
+                for (int i = 0; i < newItems.size(); i++) {
+                    positions.put(newItems.get(i).id, start + i);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onPageItemChanged(int page, int offset, Member oldItem, Member newItem) {
+        int position = page * getPageSize() + offset;
+        synchronized (positions) {
+            positions.remove(oldItem.id, position);
+            positions.put(newItem.id, position);
+        }
+    }
+
+    private void updateTotal(int newTotal) {
+        if (newTotal != -1) {
+            lastTotal.set(newTotal);
+        }
+        int oldTotal = currentTotal.getAndSet(newTotal);
+        if (oldTotal != newTotal) {
+            newTotals.onNext(new Pair<>(oldTotal, newTotal));
+        }
+    }
 }
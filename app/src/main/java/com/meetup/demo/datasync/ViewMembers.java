@@ -3,11 +3,13 @@ package com.meetup.demo.datasync;
 import android.os.Bundle;
 import android.support.design.widget.Snackbar;
 import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.util.Pair;
 import android.view.View;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
@@ -16,13 +18,20 @@ import javax.inject.Named;
 import butterknife.ButterKnife;
 import butterknife.InjectView;
 import rx.Scheduler;
+import rx.Subscription;
 import rx.subscriptions.CompositeSubscription;
 import rx.subscriptions.Subscriptions;
 
 import com.meetup.demo.datasync.api.DemoApi;
 import com.meetup.demo.datasync.application.DemoApplication;
 import com.meetup.demo.datasync.bus.MemberUpdate;
+import com.meetup.demo.datasync.model.Member;
+import com.meetup.demo.datasync.model.MemberChange;
+import com.meetup.util.DiskPageCache;
 import com.meetup.util.ErrorUi;
+import com.meetup.util.FetchScheduler;
+import com.meetup.util.MemoryTrimmer;
+import com.meetup.util.Metrics;
 import com.meetup.util.RxBus;
 
 /**
@@ -31,15 +40,30 @@ import com.meetup.util.RxBus;
  *
  * Demonstrates:
  *  - Fetching members from external API service in pages
- *  - Proactive fetching near page edges for a smoother UX
+ *  - Proactive fetching ahead of the scroll direction for a smoother UX
+ *  - Rendering pages persisted on disk right away, then reconciling with the network
+ *  - Keeping stale pages on screen while they're refetched, updating only the rows that changed
+ *  - Diffing what was on screen against what came back, to animate a reload row by row
  *  - Identifying cache staleness from external API metadata
- *  - Identifying cache staleness from local changes made in other activities via RxBus events
+ *  - Applying local changes made in other activities, received via RxBus events, in place
+ *  - Catching up with the server's change log instead of reloading everything
+ *  - Laying out placeholder rows for an estimated total before the first page arrives
+ *  - Caching a window of pages around the rows shown, so jumping around doesn't thrash
  */
 public class ViewMembers extends BaseActivity implements
         SwipeRefreshLayout.OnRefreshListener {
+    // the bus keeps only the latest update per member, so this many only piles up if the UI stalls
+    private static final int MAX_UPDATES_PER_BATCH = 100;
+
     @Inject @Named("ui") Scheduler uiScheduler;
+    @Inject @Named("computation") Scheduler computationScheduler;
     @Inject DemoApi api;
+    @Inject DiskPageCache<Member> memberPages;
     @Inject RxBus.Driver<MemberUpdate> memberUpdates;
+    @Inject MemoryTrimmer memoryTrimmer;
+    @Inject FetchScheduler fetchScheduler;
+    @Inject Metrics metrics;
+    @Inject @Named("memberPagesMemoryBytes") long memberPagesMemoryBytes;
 
     @InjectView(R.id.swipe_layout) SwipeRefreshLayout swipeLayout;
     @InjectView(R.id.recycler) RecyclerView recycler;
@@ -50,6 +74,10 @@ public class ViewMembers extends BaseActivity implements
 
     private MembersAdapter adapter;
     private PaginatedMembers members;
+    private Subscription reloading = Subscriptions.unsubscribed();
+    // adapter positions the reload in flight will diff; refreshed rows there wait for the diff
+    private int diffFrom;
+    private int diffTo;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,11 +93,29 @@ public class ViewMembers extends BaseActivity implements
         // data
         members = (PaginatedMembers) getLastCustomNonConfigurationInstance();
         if (members == null) {
-            members = new PaginatedMembers(api);
+            members = new PaginatedMembers(api, memberPages, uiScheduler, memberPagesMemoryBytes);
+            members.setFetchScheduler(fetchScheduler);
+            members.setMetrics(metrics, "members");
         }
         adapter = new MembersAdapter(this, members);
         recycler.setAdapter(adapter);
 
+        // keep the cached pages, and what loads first, centered on the rows shown
+        recycler.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layout =
+                        (LinearLayoutManager) recyclerView.getLayoutManager();
+                int first = layout.findFirstVisibleItemPosition();
+                if (first != RecyclerView.NO_POSITION) {
+                    members.setViewport(first, layout.findLastVisibleItemPosition() + 1);
+                }
+            }
+        });
+
+        // dropped pages are fetched again, from disk if possible, when next shown
+        subs.add(memoryTrimmer.register(members::trim));
+
         // event handlers
         subs.add(adapter.memberClicks()
                 // don't need to specify UI scheduler since click is a UI event
@@ -77,6 +123,9 @@ public class ViewMembers extends BaseActivity implements
         subs.add(members.newTotals()
                 .observeOn(uiScheduler)
                 .subscribe(this::onNewTotal));
+        subs.add(members.itemRefreshes()
+                .observeOn(uiScheduler)
+                .subscribe(this::onItemsRefreshed));
     }
 
     @Override
@@ -84,21 +133,25 @@ public class ViewMembers extends BaseActivity implements
         super.onResume();
         onPauseSubs = Subscriptions.from();
         // refresh if needed
-        boolean needsRefreshing = !members.hasTotal();
-        long updatesFromTime;
-        if (needsRefreshing) {
-            refresh(true);
-            updatesFromTime = -1;  // if refreshing anyway, no need to observe past events
-        } else {
-            updatesFromTime = Math.max(pausedElapsedRealtime, savedElapsedRealtime);
+        long updatesFromTime = Math.max(pausedElapsedRealtime, savedElapsedRealtime);
+        if (!members.hasTotal()) {
+            if (savedElapsedRealtime != -1 && pausedElapsedRealtime == -1) {
+                // restored, maybe after the process died: rows come back from disk, and need the
+                // edits made since the state was saved like they would have in memory
+                loadFirstPage();
+            } else {
+                refresh();
+                updatesFromTime = -1;  // if refreshing anyway, no need to observe past events
+            }
         }
 
         // start listening to event broadcasts.
-        onPauseSubs.add(memberUpdates.observable(updatesFromTime)
-                // debounce so we don't show snackbar for each update emitted in succession
-                .debounce(100, TimeUnit.MILLISECONDS)
+        // batched so updates emitted in succession are applied together; if we fall too far
+        // behind to apply them all, fall back to offering a refresh
+        onPauseSubs.add(memberUpdates.batches(updatesFromTime, 100, TimeUnit.MILLISECONDS,
+                MAX_UPDATES_PER_BATCH, RxBus.Overflow.ERROR)
                 .observeOn(uiScheduler)
-                .subscribe(update -> showRefreshBar()));
+                .subscribe(this::onMemberUpdates, error -> showRefreshBar()));
     }
 
     @Override
@@ -120,42 +173,195 @@ public class ViewMembers extends BaseActivity implements
 
     void onNewTotal(Pair<Integer, Integer> totals) {
         int oldTotal = totals.first;
-        if (oldTotal != -1) {
+        if (oldTotal == -1) {
+            // the first total since a reset, replacing the estimate the list was laid out with
+            adapter.reconcileItemCount();
+        } else if (reloading.isUnsubscribed()) {
             // alert the user that the content on screen may be outdated
             showRefreshBar();
         }
     }
 
+    void onMemberUpdates(List<MemberUpdate> updates) {
+        for (MemberUpdate update : updates) {
+            for (int position : members.replaceMember(update.newMember)) {
+                adapter.notifyItemChanged(position);
+            }
+        }
+    }
+
+    void onItemsRefreshed(List<Integer> positions) {
+        int count = adapter.getItemCount();
+        for (int position : positions) {
+            if (position < count && (position < diffFrom || position >= diffTo)) {
+                adapter.notifyItemChanged(position);
+            }
+        }
+    }
+
+    void onPageRefreshed(int page) {
+        int start = page * members.getPageSize();
+        int count = Math.min(members.getPageSize(), adapter.getItemCount() - start);
+        if (count > 0) {
+            adapter.notifyItemRangeChanged(start, count);
+        }
+    }
+
     @Override
     public void onRefresh() {
-        refresh(true);
+        if (!members.hasTotal()) {
+            refresh();
+            return;
+        }
+        reload();
     }
 
-    private void refresh(boolean resetTotal) {
-        // if not a user-triggered refresh and we're resetting, show the spinner
-        if (resetTotal) {
-            recycler.setVisibility(View.GONE);
-            swipeLayout.post(() -> {
-                if (swipeLayout != null) {
-                    swipeLayout.setRefreshing(true);
-                }
-            });
-            members.resetTotal();
+    // keep the list up while it's refetched, then animate the rows on screen from what was shown
+    // to what came back.  Rows off screen update as their pages come back.
+    private void reload() {
+        LinearLayoutManager layout = (LinearLayoutManager) recycler.getLayoutManager();
+        int from = Math.max(0, layout.findFirstVisibleItemPosition());
+        int to = Math.max(from, layout.findLastVisibleItemPosition() + 1);
+        int oldCount = adapter.getItemCount();
+        List<Member> before = members.getRangeIfPresent(from, to);
+        if (before == null) {
+            // nothing settled to diff against; pages update as they come back
+            from = to = 0;
+        }
+        reloading.unsubscribe();
+        int diffFrom = from;
+        int diffTo = to;
+        this.diffFrom = diffFrom;
+        this.diffTo = diffTo;
+        reloading = members.revalidateAll()
+                .lastOrDefault(null)
+                .observeOn(uiScheduler)
+                .map(done -> {
+                    if (before == null) {
+                        return null;
+                    }
+                    // if the list grew or shrank, the run shown did by as much only if the rows
+                    // at its edges stayed put; otherwise rows came or went off screen too
+                    int change = members.getTotal() - oldCount;
+                    List<Member> after = members.getRangeIfPresent(diffFrom,
+                            Math.max(diffFrom, diffTo + change));
+                    return after != null && (change == 0 || sameEdges(before, after)) ?
+                            after : null;
+                })
+                .observeOn(computationScheduler)
+                .map(after -> after != null ? MemberDiff.compute(before, after) : null)
+                .compose(ErrorUi.catchAndToast(this))
+                // after an error too, so rows refreshed meanwhile aren't left out of date
+                .lastOrDefault(null)
+                .observeOn(uiScheduler)
+                // however it ends, including when the next reload replaces it
+                .doOnUnsubscribe(() -> {
+                    swipeLayout.setRefreshing(false);
+                    this.diffFrom = this.diffTo = 0;
+                })
+                .subscribe(diff -> {
+                    // a sync may have changed the rows since the diff was taken
+                    if (diff != null && adapter.getItemCount() == oldCount) {
+                        adapter.setItemCount(oldCount + diff.countChange());
+                        diff.dispatchTo(adapter, diffFrom);
+                        return;
+                    }
+                    int changed = Math.min(diffTo, adapter.getItemCount()) - diffFrom;
+                    if (before != null && changed > 0) {
+                        // nothing to line the rows shown up with; redraw them in place
+                        adapter.notifyItemRangeChanged(diffFrom, changed);
+                    }
+                    adapter.reconcileItemCount();
+                });
+        subs.add(reloading);
+    }
+
+    // whether `after` starts and ends with the same members `before` did
+    private static boolean sameEdges(List<Member> before, List<Member> after) {
+        return !before.isEmpty() && !after.isEmpty() &&
+                before.get(0).id == after.get(0).id &&
+                before.get(before.size() - 1).id == after.get(after.size() - 1).id;
+    }
+
+    // patch the list with what changed since it was loaded, reload everything if we can't
+    private void sync() {
+        if (refreshBar != null && refreshBar.isShownOrQueued()) {
+            refreshBar.dismiss();
+        }
+        subs.add(members.sync()
+                .observeOn(uiScheduler)
+                .subscribe(this::onSync, error -> reload()));
+    }
+
+    void onSync(PaginatedMembers.Sync sync) {
+        int oldTotal = adapter.getItemCount();
+        int expectedOldTotal = sync.total;
+        for (MemberChange change : sync.changes) {
+            if (change.type == MemberChange.Type.INSERT) {
+                expectedOldTotal--;
+            } else if (change.type == MemberChange.Type.DELETE) {
+                expectedOldTotal++;
+            }
+        }
+        List<Integer> dropped = members.applySync(sync);
+        adapter.setItemCount(members.getTotal());
+        if (oldTotal != expectedOldTotal) {
+            // what's shown didn't come from a single version; item animations would be wrong
+            adapter.notifyDataSetChanged();
+            return;
+        }
+        for (MemberChange change : sync.changes) {
+            switch (change.type) {
+                case INSERT:
+                    adapter.notifyItemInserted(change.index);
+                    break;
+                case DELETE:
+                    adapter.notifyItemRemoved(change.index);
+                    break;
+                case RENAME:
+                    adapter.notifyItemChanged(change.index);
+                    break;
+            }
+        }
+        for (int page : dropped) {
+            onPageRefreshed(page);
         }
+    }
+
+    // start over from nothing, behind the spinner.  Rows are laid out as placeholders right away
+    // if there's an estimate of the total; the real one reconciles them when it arrives
+    private void refresh() {
+        members.resetTotal();
         // invalidate cache and trigger the adapter
         members.invalidateAll();
+        adapter.setItemCount(members.getEstimatedTotal());
         adapter.notifyDataSetChanged();
-        if (!members.hasTotal()) {
-            // first fetch to set the total from the server
-            subs.add(members.get(0)
-                    .compose(ErrorUi.catchAndToast(this))
-                    .observeOn(uiScheduler)
-                    .doOnUnsubscribe(() -> {
-                        swipeLayout.setRefreshing(false);
-                        recycler.setVisibility(View.VISIBLE);
-                    })
-                    .subscribe());
-        }
+        loadFirstPage();
+    }
+
+    // determine the total, behind the spinner, keeping whatever is cached
+    private void loadFirstPage() {
+        swipeLayout.post(() -> {
+            if (swipeLayout != null) {
+                swipeLayout.setRefreshing(true);
+            }
+        });
+        // on a cold start the estimate is on disk
+        subs.add(members.loadEstimatedTotal()
+                .observeOn(uiScheduler)
+                .subscribe(estimate -> {
+                    if (!members.hasTotal()) {
+                        adapter.reconcileItemCount();
+                    }
+                }));
+        // first fetch to set the total from the server
+        subs.add(members.get(0)
+                // the first emission may come from disk; show it without waiting for the network
+                .take(1)
+                .compose(ErrorUi.catchAndToast(this))
+                .observeOn(uiScheduler)
+                .doOnUnsubscribe(() -> swipeLayout.setRefreshing(false))
+                .subscribe());
         if (refreshBar != null && refreshBar.isShownOrQueued()) {
             refreshBar.dismiss();
         }
@@ -165,7 +371,7 @@ public class ViewMembers extends BaseActivity implements
         if (refreshBar != null && refreshBar.isShown())
             return;
         refreshBar = Snackbar.make(toolbar, R.string.content_outdated, Snackbar.LENGTH_INDEFINITE)
-                .setAction(R.string.refresh, v -> refresh(false));
+                .setAction(R.string.refresh, v -> sync());
         refreshBar.show();
     }
 }
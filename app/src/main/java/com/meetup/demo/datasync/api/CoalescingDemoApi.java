@@ -0,0 +1,316 @@
+package com.meetup.demo.datasync.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Observable;
+import rx.Observer;
+import rx.Scheduler;
+import rx.functions.Func0;
+import rx.subjects.AsyncSubject;
+
+import com.meetup.demo.datasync.model.Member;
+import com.meetup.demo.datasync.model.MemberChange;
+
+/**
+ * `DemoApi` decorator that cuts down on round trips, which dominate under real latency:
+ *  - Identical requests in flight at the same time share one upstream request
+ *  - `member(long)` lookups made within `windowMillis` of each other go out as one
+ *    `membersByIds(List)`
+ *  - `members(int, int)` requests for adjacent pages made within `windowMillis` of each other go
+ *    out as one `membersRange(int, int)`
+ *
+ * Lookups and page requests wait up to `windowMillis` before going out.  Unsubscribing before
+ * then takes them out of the batch; once sent, the batch isn't cancelled for anyone.
+ * `editMember(long, String)` is passed straight through.  See `stats()` for what was saved.
+ */
+public class CoalescingDemoApi implements DemoApi {
+    public static final class Stats {
+        // requests made to this api
+        public final long requests;
+        // requests made to the wrapped api
+        public final long upstreamRequests;
+        // requests that joined an identical one in flight
+        public final long coalesced;
+        // member lookups sent as part of a `membersByIds` batch
+        public final long batched;
+        // page requests sent as part of a `membersRange` fetch
+        public final long merged;
+
+        Stats(long requests, long upstreamRequests, long coalesced, long batched, long merged) {
+            this.requests = requests;
+            this.upstreamRequests = upstreamRequests;
+            this.coalesced = coalesced;
+            this.batched = batched;
+            this.merged = merged;
+        }
+
+        public long saved() {
+            return requests - upstreamRequests;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + " upstream=" + upstreamRequests +
+                    " coalesced=" + coalesced + " batched=" + batched + " merged=" + merged;
+        }
+    }
+
+    private final DemoApi api;
+    private final long windowMillis;
+    private final Scheduler.Worker worker;
+
+    private final ConcurrentHashMap<String, Observable<?>> inFlight = new ConcurrentHashMap<>();
+    // guarded by this
+    private Map<Long, AsyncSubject<DemoResponse<Member>>> pendingIds = new LinkedHashMap<>();
+    // page size -> page -> request, guarded by this
+    private Map<Integer, TreeMap<Integer, AsyncSubject<DemoResponse<List<Member>>>>> pendingPages =
+            new HashMap<>();
+    private boolean flushScheduled;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong upstreamRequests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong batched = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+
+    /**
+     * @param windowMillis How long lookups and page requests wait for others to batch with
+     * @param scheduler Scheduler the batching window is timed on
+     */
+    public CoalescingDemoApi(DemoApi api, long windowMillis, Scheduler scheduler) {
+        this.api = api;
+        this.windowMillis = windowMillis;
+        this.worker = scheduler.createWorker();
+    }
+
+    public Stats stats() {
+        return new Stats(requests.get(), upstreamRequests.get(), coalesced.get(), batched.get(),
+                merged.get());
+    }
+
+    @Override
+    public Observable<DemoResponse<List<Member>>> members(int page, int pageSize) {
+        return coalesce("members:" + page + ":" + pageSize, () -> {
+            AsyncSubject<DemoResponse<List<Member>>> subject = AsyncSubject.create();
+            synchronized (this) {
+                TreeMap<Integer, AsyncSubject<DemoResponse<List<Member>>>> pages =
+                        pendingPages.get(pageSize);
+                if (pages == null) {
+                    pages = new TreeMap<>();
+                    pendingPages.put(pageSize, pages);
+                }
+                pages.put(page, subject);
+                scheduleFlush();
+            }
+            return subject.doOnUnsubscribe(() -> {
+                synchronized (this) {
+                    Map<Integer, AsyncSubject<DemoResponse<List<Member>>>> pages =
+                            pendingPages.get(pageSize);
+                    if (pages != null && pages.get(page) == subject) {
+                        pages.remove(page);
+                    }
+                }
+            });
+        });
+    }
+
+    @Override
+    public Observable<DemoResponse<Member>> member(long id) {
+        return coalesce("member:" + id, () -> {
+            AsyncSubject<DemoResponse<Member>> subject = AsyncSubject.create();
+            synchronized (this) {
+                pendingIds.put(id, subject);
+                scheduleFlush();
+            }
+            return subject.doOnUnsubscribe(() -> {
+                synchronized (this) {
+                    if (pendingIds.get(id) == subject) {
+                        pendingIds.remove(id);
+                    }
+                }
+            });
+        });
+    }
+
+    @Override
+    public Observable<DemoResponse<Member>> editMember(long id, String name) {
+        return Observable.defer(() -> {
+            requests.incrementAndGet();
+            upstreamRequests.incrementAndGet();
+            return api.editMember(id, name);
+        });
+    }
+
+    @Override
+    public Observable<DemoResponse<List<Member>>> membersRange(int from, int to) {
+        return coalesce("membersRange:" + from + ":" + to,
+                () -> upstream(api.membersRange(from, to)));
+    }
+
+    @Override
+    public Observable<DemoResponse<List<Member>>> membersByIds(List<Long> ids) {
+        return coalesce("membersByIds:" + ids, () -> upstream(api.membersByIds(ids)));
+    }
+
+    @Override
+    public Observable<DemoResponse<List<MemberChange>>> changesSince(long version) {
+        return coalesce("changesSince:" + version, () -> upstream(api.changesSince(version)));
+    }
+
+    private <T> Observable<T> upstream(Observable<T> request) {
+        upstreamRequests.incrementAndGet();
+        return request;
+    }
+
+    /**
+     * Shares the request made by `request` with identical ones (same `key`) until it
+     * terminates or everyone unsubscribes.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Observable<T> coalesce(String key, Func0<Observable<T>> request) {
+        return Observable.defer(() -> {
+            requests.incrementAndGet();
+            AtomicReference<Observable<T>> self = new AtomicReference<>();
+            Observable<T> shared = Observable.defer(request)
+                    .doOnUnsubscribe(() -> inFlight.remove(key, self.get()))
+                    .replay(1)
+                    .refCount();
+            self.set(shared);
+            Observable<T> existing = (Observable<T>) inFlight.putIfAbsent(key, shared);
+            if (existing != null) {
+                coalesced.incrementAndGet();
+                return existing;
+            }
+            return shared;
+        });
+    }
+
+    // must hold the lock
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            worker.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        Map<Long, AsyncSubject<DemoResponse<Member>>> ids;
+        Map<Integer, TreeMap<Integer, AsyncSubject<DemoResponse<List<Member>>>>> pages;
+        synchronized (this) {
+            ids = pendingIds;
+            pages = pendingPages;
+            pendingIds = new LinkedHashMap<>();
+            pendingPages = new HashMap<>();
+            flushScheduled = false;
+        }
+        if (!ids.isEmpty()) {
+            flushIds(ids);
+        }
+        for (Map.Entry<Integer, TreeMap<Integer, AsyncSubject<DemoResponse<List<Member>>>>> entry :
+                pages.entrySet()) {
+            flushPages(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void flushIds(Map<Long, AsyncSubject<DemoResponse<Member>>> ids) {
+        upstreamRequests.incrementAndGet();
+        if (ids.size() == 1) {
+            Map.Entry<Long, AsyncSubject<DemoResponse<Member>>> only =
+                    ids.entrySet().iterator().next();
+            api.member(only.getKey()).subscribe(only.getValue());
+            return;
+        }
+        batched.addAndGet(ids.size());
+        api.membersByIds(new ArrayList<>(ids.keySet())).subscribe(
+                response -> {
+                    Map<Long, Member> byId = new HashMap<>();
+                    for (Member member : response.results) {
+                        byId.put(member.id, member);
+                    }
+                    for (Map.Entry<Long, AsyncSubject<DemoResponse<Member>>> entry :
+                            ids.entrySet()) {
+                        Member member = byId.get(entry.getKey());
+                        if (member != null) {
+                            entry.getValue().onNext(new DemoResponse<>(response.meta, member));
+                            entry.getValue().onCompleted();
+                        } else {
+                            // same as `member(long)`
+                            entry.getValue().onError(
+                                    new IllegalStateException("member doesn't exist"));
+                        }
+                    }
+                },
+                error -> {
+                    for (AsyncSubject<DemoResponse<Member>> subject : ids.values()) {
+                        subject.onError(error);
+                    }
+                });
+    }
+
+    private void flushPages(int pageSize,
+                            TreeMap<Integer, AsyncSubject<DemoResponse<List<Member>>>> pages) {
+        List<Integer> run = new ArrayList<>();
+        for (int page : pages.keySet()) {
+            if (!run.isEmpty() && page != run.get(run.size() - 1) + 1) {
+                fetchRun(pageSize, run, pages);
+                run = new ArrayList<>();
+            }
+            run.add(page);
+        }
+        if (!run.isEmpty()) {
+            fetchRun(pageSize, run, pages);
+        }
+    }
+
+    // fetches consecutive `run` of pages in one request
+    private void fetchRun(int pageSize, List<Integer> run,
+                          Map<Integer, AsyncSubject<DemoResponse<List<Member>>>> pages) {
+        upstreamRequests.incrementAndGet();
+        int first = run.get(0);
+        if (run.size() == 1) {
+            api.members(first, pageSize).subscribe(pages.get(first));
+            return;
+        }
+        merged.addAndGet(run.size());
+        int from = first * pageSize;
+        int to = (run.get(run.size() - 1) + 1) * pageSize;
+        api.membersRange(from, to).subscribe(new Observer<DemoResponse<List<Member>>>() {
+            @Override
+            public void onNext(DemoResponse<List<Member>> response) {
+                List<Member> results = response.results;
+                for (int page : run) {
+                    int start = page * pageSize - from;
+                    if (start < results.size()) {
+                        int end = Math.min(start + pageSize, results.size());
+                        pages.get(page).onNext(
+                                new DemoResponse<>(response.meta, results.subList(start, end)));
+                    }
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                // pages past the end complete without emitting, like `members(int, int)`
+                for (int page : run) {
+                    pages.get(page).onCompleted();
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                for (int page : run) {
+                    pages.get(page).onError(e);
+                }
+            }
+        });
+    }
+}
@@ -5,9 +5,31 @@ import java.util.List;
 import rx.Observable;
 
 import com.meetup.demo.datasync.model.Member;
+import com.meetup.demo.datasync.model.MemberChange;
 
+/**
+ * Responses carry "totalMembers" and "version" in their `meta`.  The version increases with
+ * every change to the member list.
+ */
 public interface DemoApi {
     Observable<DemoResponse<List<Member>>> members(int page, int pageSize);
     Observable<DemoResponse<Member>> member(long id);
     Observable<DemoResponse<Member>> editMember(long id, String name);
+
+    /**
+     * Members at positions `from` (inclusive) to `to` (exclusive), i.e. several adjacent pages in
+     * one request.  Completes without emitting if `from` is past the end, like `members`.
+     */
+    Observable<DemoResponse<List<Member>>> membersRange(int from, int to);
+
+    /**
+     * Members with the given ids, in the same order.  Ids that don't exist are left out.
+     */
+    Observable<DemoResponse<List<Member>>> membersByIds(List<Long> ids);
+
+    /**
+     * Changes made to the member list after `version`, oldest first.  Errors if the server no
+     * longer has the changes since `version`, in which case the client should reload.
+     */
+    Observable<DemoResponse<List<MemberChange>>> changesSince(long version);
 }
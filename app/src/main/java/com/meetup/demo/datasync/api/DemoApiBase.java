@@ -4,58 +4,112 @@ import android.annotation.SuppressLint;
 import android.os.Bundle;
 import android.os.SystemClock;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.annotation.Nullable;
 import javax.inject.Singleton;
 
 import rx.Observable;
 import rx.Scheduler;
+import rx.Subscriber;
 
 import com.meetup.demo.datasync.model.Member;
+import com.meetup.demo.datasync.model.MemberChange;
 
+/**
+ * Fake backend.  Reads are served from an immutable `MemberSnapshot` without locking, so they
+ * scale with threads; writes are serialized and publish a new snapshot.  Every response carries
+ * the version of the snapshot it was served from in its meta.
+ */
 @Singleton
 public class DemoApiBase implements DemoApi {
+    // how many changes `changesSince(long)` can go back
+    private static final int MAX_CHANGES_KEPT = 500;
+
     private final Scheduler scheduler;
+    private final boolean fakeLatency;
 
     // demo fake stuff
     private final Random random;
     private final AtomicLong nextId = new AtomicLong(1);
-    private final List<Member> membersList = Lists.newArrayList();
+    // what readers see; replaced by writers holding the lock
+    private volatile MemberSnapshot snapshot = MemberSnapshot.EMPTY;
+    // positions by id for writers, guarded by this
+    private final MemberStore index = new MemberStore();
+    // the change to version v is at `v % MAX_CHANGES_KEPT`, written before v is published
+    private final AtomicReferenceArray<MemberChange> changeLog =
+            new AtomicReferenceArray<>(MAX_CHANGES_KEPT);
 
     public DemoApiBase(Scheduler scheduler) {
+        this(scheduler, true);
+    }
+
+    /**
+     * @param fakeLatency Whether to sleep 500-1500ms before each response.  Turn this off for
+     *                    benchmarks so we measure the work instead of the artificial delay.
+     */
+    public DemoApiBase(Scheduler scheduler, boolean fakeLatency) {
+        this(scheduler, fakeLatency, 260);
+    }
+
+    /**
+     * @param memberCount Number of members to start with, e.g. many more for load tests
+     */
+    public DemoApiBase(Scheduler scheduler, boolean fakeLatency, int memberCount) {
         this.scheduler = scheduler;
+        this.fakeLatency = fakeLatency;
         this.random = new Random();
-        initData();
+        initData(memberCount);
     }
 
-    private void initData() {
-        for (int i = 0; i < 260; i++) {
+    private synchronized void initData(int memberCount) {
+        MemberSnapshot initial = snapshot;
+        for (int i = 0; i < memberCount; i++) {
             long id = nextId.getAndIncrement();
-            membersList.add(Member.dummy(id));
+            Member member = Member.dummy(id);
+            index.add(i, member);
+            // not a change anyone could have missed, so it stays at version 0
+            initial = initial.add(0, i, member);
         }
+        snapshot = initial;
     }
 
     @Override
     public Observable<DemoResponse<List<Member>>> members(int page, int pageSize) {
+        return create(subscriber -> emitRange(subscriber, page * pageSize, (page + 1) * pageSize));
+    }
+
+    @Override
+    public Observable<DemoResponse<List<Member>>> membersRange(int from, int to) {
+        return create(subscriber -> emitRange(subscriber, from, to));
+    }
+
+    @Override
+    public Observable<DemoResponse<List<Member>>> membersByIds(List<Long> ids) {
         return create(subscriber -> {
-            List<Member> allInts = fetchAllMembers();
-            int total = allInts.size();
-            int start = page * pageSize;
-            int end = Math.min(start + pageSize, total);
-            if (start >= total) {
-                subscriber.onCompleted();
-            } else {
-                Bundle meta = new Bundle();
-                meta.putInt("totalMembers", total);
-                subscriber.onNext(new DemoResponse<>(meta, allInts.subList(start, end)));
-                subscriber.onCompleted();
+            // randomly error for demo's sake, once per request like `member(long)`
+            if (random.nextFloat() < .4) {
+                subscriber.onError(new RuntimeException("A random error suddenly appeared!"));
+                return;
             }
+            for (long id : ids) {
+                maybeRename(id);
+            }
+            MemberSnapshot snapshot = this.snapshot;
+            List<Member> found = Lists.newArrayListWithCapacity(ids.size());
+            for (long id : ids) {
+                Member member = snapshot.getById(id);
+                if (member != null) {
+                    found.add(member);
+                }
+            }
+            subscriber.onNext(new DemoResponse<>(meta(snapshot), found));
+            subscriber.onCompleted();
         });
     }
 
@@ -67,11 +121,11 @@ public class DemoApiBase implements DemoApi {
                 subscriber.onError(new RuntimeException("A random error suddenly appeared!"));
                 return;
             }
-            Member member = getMember(id);
+            maybeRename(id);
+            MemberSnapshot snapshot = this.snapshot;
+            Member member = snapshot.getById(id);
             if (member != null) {
-                Bundle meta = new Bundle();
-                meta.putInt("totalMembers", membersList.size());
-                subscriber.onNext(new DemoResponse<>(meta, member));
+                subscriber.onNext(new DemoResponse<>(meta(snapshot), member));
             } else {
                 // custom `ApiError` would be better
                 subscriber.onError(new IllegalStateException("member doesn't exist"));
@@ -80,13 +134,12 @@ public class DemoApiBase implements DemoApi {
         });
     }
 
+    @Override
     public Observable<DemoResponse<Member>> editMember(long id, String newName) {
         return create(subscriber -> {
             Member member = updateMemberName(id, newName);
             if (member != null) {
-                Bundle meta = new Bundle();
-                meta.putInt("totalMembers", membersList.size());
-                subscriber.onNext(new DemoResponse<>(meta, member));
+                subscriber.onNext(new DemoResponse<>(meta(snapshot), member));
             } else {
                 // custom `ApiError` would be better
                 subscriber.onError(new IllegalStateException("member doesn't exist"));
@@ -95,50 +148,118 @@ public class DemoApiBase implements DemoApi {
         });
     }
 
+    @Override
+    public Observable<DemoResponse<List<MemberChange>>> changesSince(long since) {
+        return create(subscriber -> {
+            MemberSnapshot snapshot = this.snapshot;
+            List<MemberChange> changes = Lists.newArrayList();
+            boolean available = since >= 0 && since <= snapshot.version &&
+                    snapshot.version - since <= MAX_CHANGES_KEPT;
+            for (long version = since + 1; available && version <= snapshot.version; version++) {
+                MemberChange change = changeLog.get(slot(version));
+                // overwritten by writers that got more than a log's worth ahead meanwhile
+                available = change != null && change.version == version;
+                changes.add(change);
+            }
+            if (!available) {
+                // custom `ApiError` would be better
+                subscriber.onError(new IllegalStateException("changes since " + since +
+                        " unavailable"));
+                return;
+            }
+            subscriber.onNext(new DemoResponse<>(meta(snapshot), changes));
+            subscriber.onCompleted();
+        });
+    }
+
     // common helper
     private <T> Observable<T> create(Observable.OnSubscribe<T> onSubscribe) {
         return Observable.<T>create(subscriber -> {
-            fakeLatency();
+            if (fakeLatency) {
+                fakeLatency();
+            }
             onSubscribe.call(subscriber);
         }).subscribeOn(scheduler);
     }
 
-    private synchronized List<Member> fetchAllMembers() {
+    private static Bundle meta(MemberSnapshot snapshot) {
+        Bundle meta = new Bundle();
+        meta.putInt("totalMembers", snapshot.size());
+        meta.putLong("version", snapshot.version);
+        return meta;
+    }
+
+    // emits members `from` (inclusive) to `to` (exclusive), or nothing if `from` is past the end
+    private void emitRange(Subscriber<? super DemoResponse<List<Member>>> subscriber,
+                           int from, int to) {
+        simulateChanges();
+        MemberSnapshot snapshot = this.snapshot;
+        int end = Math.min(to, snapshot.size());
+        if (from >= end) {
+            subscriber.onCompleted();
+            return;
+        }
+        subscriber.onNext(new DemoResponse<>(meta(snapshot), snapshot.slice(from, end)));
+        subscriber.onCompleted();
+    }
+
+    private void simulateChanges() {
         // sometimes add one
         if (random.nextFloat() < .1) {
-            int index = random.nextInt(membersList.size());
-            long id = nextId.getAndIncrement();
-            membersList.add(index, Member.dummy(id));
+            addRandomMember();
         }
         // sometimes remove one
         if (random.nextFloat() < .1) {
-            membersList.remove(random.nextInt(membersList.size()));
+            removeRandomMember();
         }
-        return Lists.newArrayList(membersList);
+    }
+
+    private synchronized void addRandomMember() {
+        int position = random.nextInt(index.size() + 1);
+        Member member = Member.dummy(nextId.getAndIncrement());
+        index.add(position, member);
+        publish(snapshot.add(snapshot.version + 1, position, member),
+                MemberChange.Type.INSERT, position, member);
+    }
+
+    private synchronized void removeRandomMember() {
+        if (index.size() == 0) return;
+        int position = random.nextInt(index.size());
+        Member member = index.remove(position);
+        publish(snapshot.remove(snapshot.version + 1, position),
+                MemberChange.Type.DELETE, position, member);
     }
 
     @SuppressLint("DefaultLocale")
-    @Nullable
-    private synchronized Member getMember(long id) {
-        int index = Iterables.indexOf(membersList, member -> member.id == id);
-        if (index < 0) return null;
+    private void maybeRename(long id) {
         // sometimes change the member name
         if (random.nextFloat() < .3) {
-            return updateMemberName(id, String.format("Changed! %d + %d", id, random.nextInt(100)));
-        } else {
-            return membersList.get(index);
+            updateMemberName(id, String.format("Changed! %d + %d", id, random.nextInt(100)));
         }
     }
 
     @Nullable
     private synchronized Member updateMemberName(long id, String name) {
-        int index = Iterables.indexOf(membersList, member -> member.id == id);
-        if (index < 0) return null;
+        int position = index.indexOf(id);
+        if (position < 0) return null;
         Member member = new Member(id, name);
-        membersList.set(index, member);
+        index.replace(member);
+        publish(snapshot.set(snapshot.version + 1, position, member),
+                MemberChange.Type.RENAME, position, member);
         return member;
     }
 
+    // must hold the lock.  Logs the change, then makes it visible to readers.
+    private void publish(MemberSnapshot next, MemberChange.Type type, int position,
+                         Member member) {
+        changeLog.set(slot(next.version), new MemberChange(next.version, type, position, member));
+        snapshot = next;
+    }
+
+    private static int slot(long version) {
+        return (int) (version % MAX_CHANGES_KEPT);
+    }
+
     private void fakeLatency() {
         SystemClock.sleep(500 + random.nextInt(1000));  // artificial delay
     }
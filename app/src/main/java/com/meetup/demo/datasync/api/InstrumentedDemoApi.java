@@ -0,0 +1,87 @@
+package com.meetup.demo.datasync.api;
+
+import java.util.List;
+
+import rx.Observable;
+
+import com.meetup.demo.datasync.model.Member;
+import com.meetup.demo.datasync.model.MemberChange;
+import com.meetup.util.Metrics;
+
+/**
+ * `DemoApi` decorator that records, per endpoint, the number of calls and errors and a latency
+ * histogram in microseconds from subscribing to completion, as "api.<endpoint>.calls",
+ * ".errors" and ".latencyMicros".  Wrap the outermost api to measure what callers see.
+ */
+public class InstrumentedDemoApi implements DemoApi {
+    private static final class Endpoint {
+        final Metrics.Counter calls;
+        final Metrics.Counter errors;
+        final Metrics.Histogram latencyMicros;
+
+        Endpoint(Metrics metrics, String name) {
+            calls = metrics.counter("api." + name + ".calls");
+            errors = metrics.counter("api." + name + ".errors");
+            latencyMicros = metrics.histogram("api." + name + ".latencyMicros");
+        }
+
+        <T> Observable<T> measure(Observable<T> call) {
+            return Observable.defer(() -> {
+                long start = System.nanoTime();
+                calls.increment();
+                return call
+                        .doOnCompleted(() ->
+                                latencyMicros.record((System.nanoTime() - start) / 1000))
+                        .doOnError(error -> errors.increment());
+            });
+        }
+    }
+
+    private final DemoApi api;
+    private final Endpoint members;
+    private final Endpoint member;
+    private final Endpoint editMember;
+    private final Endpoint membersRange;
+    private final Endpoint membersByIds;
+    private final Endpoint changesSince;
+
+    public InstrumentedDemoApi(DemoApi api, Metrics metrics) {
+        this.api = api;
+        this.members = new Endpoint(metrics, "members");
+        this.member = new Endpoint(metrics, "member");
+        this.editMember = new Endpoint(metrics, "editMember");
+        this.membersRange = new Endpoint(metrics, "membersRange");
+        this.membersByIds = new Endpoint(metrics, "membersByIds");
+        this.changesSince = new Endpoint(metrics, "changesSince");
+    }
+
+    @Override
+    public Observable<DemoResponse<List<Member>>> members(int page, int pageSize) {
+        return members.measure(api.members(page, pageSize));
+    }
+
+    @Override
+    public Observable<DemoResponse<Member>> member(long id) {
+        return member.measure(api.member(id));
+    }
+
+    @Override
+    public Observable<DemoResponse<Member>> editMember(long id, String name) {
+        return editMember.measure(api.editMember(id, name));
+    }
+
+    @Override
+    public Observable<DemoResponse<List<Member>>> membersRange(int from, int to) {
+        return membersRange.measure(api.membersRange(from, to));
+    }
+
+    @Override
+    public Observable<DemoResponse<List<Member>>> membersByIds(List<Long> ids) {
+        return membersByIds.measure(api.membersByIds(ids));
+    }
+
+    @Override
+    public Observable<DemoResponse<List<MemberChange>>> changesSince(long version) {
+        return changesSince.measure(api.changesSince(version));
+    }
+}
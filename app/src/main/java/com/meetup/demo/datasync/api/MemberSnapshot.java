@@ -0,0 +1,176 @@
+package com.meetup.demo.datasync.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.meetup.demo.datasync.model.Member;
+import com.meetup.util.PersistentLongMap;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Immutable version of the member list, safe to read from any thread without locking.  Changes
+ * return a new snapshot that shares all but O(log n) nodes with this one.
+ *
+ * Positions are kept in a persistent implicit treap (copied along the path on each change) and
+ * ids in a `PersistentLongMap`.  Treap priorities come from the member id, so nodes don't need to
+ * remember a random number and the shape is the same however the list was built.
+ */
+final class MemberSnapshot {
+    static final MemberSnapshot EMPTY = new MemberSnapshot(0, null, PersistentLongMap.empty());
+
+    private static final class Node {
+        final Member member;
+        final int size;
+        @Nullable final Node left;
+        @Nullable final Node right;
+
+        Node(Member member, @Nullable Node left, @Nullable Node right) {
+            this.member = member;
+            this.size = 1 + size(left) + size(right);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    final long version;
+    @Nullable private final Node root;
+    private final PersistentLongMap<Member> byId;
+
+    private MemberSnapshot(long version, @Nullable Node root, PersistentLongMap<Member> byId) {
+        this.version = version;
+        this.root = root;
+        this.byId = byId;
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    @Nullable
+    Member getById(long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Copies members at positions `from` (inclusive) to `to` (exclusive).
+     */
+    List<Member> slice(int from, int to) {
+        checkPositionIndexes(from, to, size());
+        List<Member> members = new ArrayList<>(to - from);
+        // in-order walk with an explicit stack, starting at `from`
+        Node[] stack = new Node[32];
+        int depth = 0;
+        Node node = root;
+        int skip = from;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (skip < leftSize) {
+                stack = push(stack, depth++, node);
+                node = node.left;
+            } else if (skip == leftSize) {
+                stack = push(stack, depth++, node);
+                break;
+            } else {
+                skip -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        while (members.size() < to - from) {
+            node = stack[--depth];
+            members.add(node.member);
+            for (Node next = node.right; next != null; next = next.left) {
+                stack = push(stack, depth++, next);
+            }
+        }
+        return members;
+    }
+
+    private static Node[] push(Node[] stack, int depth, Node node) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth] = node;
+        return stack;
+    }
+
+    MemberSnapshot add(long version, int index, Member member) {
+        checkPositionIndex(index, size());
+        checkArgument(byId.get(member.id) == null, "duplicate id %s", member.id);
+        Node[] parts = split(root, index);
+        Node node = new Node(member, null, null);
+        return new MemberSnapshot(version, merge(merge(parts[0], node), parts[1]),
+                byId.put(member.id, member));
+    }
+
+    MemberSnapshot remove(long version, int index) {
+        checkElementIndex(index, size());
+        Node[] parts = split(root, index);
+        Node[] rest = split(parts[1], 1);
+        return new MemberSnapshot(version, merge(parts[0], rest[1]),
+                byId.remove(rest[0].member.id));
+    }
+
+    /**
+     * Replaces the member at `index` with `member`, which must have the same id.
+     */
+    MemberSnapshot set(long version, int index, Member member) {
+        checkElementIndex(index, size());
+        return new MemberSnapshot(version, set(root, index, member), byId.put(member.id, member));
+    }
+
+    private static Node set(Node node, int index, Member member) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return new Node(node.member, set(node.left, index, member), node.right);
+        } else if (index == leftSize) {
+            checkArgument(node.member.id == member.id);
+            return new Node(member, node.left, node.right);
+        } else {
+            return new Node(node.member, node.left, set(node.right, index - leftSize - 1, member));
+        }
+    }
+
+    // splits into new trees of the first `count` nodes and the rest
+    private static Node[] split(@Nullable Node node, int count) {
+        if (node == null) {
+            return new Node[2];
+        }
+        Node[] parts;
+        if (count <= size(node.left)) {
+            parts = split(node.left, count);
+            parts[1] = new Node(node.member, parts[1], node.right);
+        } else {
+            parts = split(node.right, count - size(node.left) - 1);
+            parts[0] = new Node(node.member, node.left, parts[0]);
+        }
+        return parts;
+    }
+
+    @Nullable
+    private static Node merge(@Nullable Node left, @Nullable Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (priority(left) > priority(right)) {
+            return new Node(left.member, left.left, merge(left.right, right));
+        } else {
+            return new Node(right.member, merge(left, right.left), right.right);
+        }
+    }
+
+    private static int priority(Node node) {
+        long h = node.member.id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int size(@Nullable Node node) {
+        return node != null ? node.size : 0;
+    }
+}
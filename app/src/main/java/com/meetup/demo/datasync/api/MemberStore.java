@@ -0,0 +1,154 @@
+package com.meetup.demo.datasync.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+
+import com.meetup.demo.datasync.model.Member;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Position index for `DemoApiBase`'s writers: where each member is, by id, as members are
+ * inserted and removed at random positions.  Reads are served from `MemberSnapshot` instead.
+ * Backed by an implicit treap (positions are subtree sizes, not keys) with parent links, plus a
+ * map from id to tree node.
+ *
+ * Finding a member's position is O(log n), and insert and remove O(log n) expected.
+ *
+ * Ids must be unique.  Not thread-safe.
+ */
+final class MemberStore {
+    private static final class Node {
+        Member member;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+        Node parent;
+
+        Node(Member member, int priority) {
+            this.member = member;
+            this.priority = priority;
+        }
+    }
+
+    private final Map<Long, Node> byId = new HashMap<>();
+    private final Random random = new Random();
+    private Node root;
+
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * @return position of the member with `id`, or -1
+     */
+    int indexOf(long id) {
+        Node node = byId.get(id);
+        if (node == null) {
+            return -1;
+        }
+        int index = size(node.left);
+        for (Node child = node, parent = node.parent; parent != null;
+             child = parent, parent = parent.parent) {
+            if (child == parent.right) {
+                index += size(parent.left) + 1;
+            }
+        }
+        return index;
+    }
+
+    void add(int index, Member member) {
+        checkPositionIndex(index, size());
+        checkArgument(!byId.containsKey(member.id), "duplicate id %s", member.id);
+        Node node = new Node(member, random.nextInt());
+        byId.put(member.id, node);
+        Node[] parts = split(root, index);
+        root = merge(merge(parts[0], node), parts[1]);
+        root.parent = null;
+    }
+
+    Member remove(int index) {
+        checkElementIndex(index, size());
+        Node[] parts = split(root, index);
+        Node[] rest = split(parts[1], 1);
+        Node removed = rest[0];
+        byId.remove(removed.member.id);
+        root = merge(parts[0], rest[1]);
+        if (root != null) {
+            root.parent = null;
+        }
+        return removed.member;
+    }
+
+    /**
+     * Replaces the member with `member.id` in place.
+     *
+     * @return the previous member, or null if there was none (and nothing changed)
+     */
+    @Nullable
+    Member replace(Member member) {
+        Node node = byId.get(member.id);
+        if (node == null) {
+            return null;
+        }
+        Member old = node.member;
+        node.member = member;
+        return old;
+    }
+
+    // splits into the first `count` nodes and the rest; the parts' roots may have stale parents
+    private static Node[] split(@Nullable Node node, int count) {
+        if (node == null) {
+            return new Node[2];
+        }
+        Node[] parts;
+        if (count <= size(node.left)) {
+            parts = split(node.left, count);
+            node.left = parts[1];
+            parts[1] = update(node);
+        } else {
+            parts = split(node.right, count - size(node.left) - 1);
+            node.right = parts[0];
+            parts[0] = update(node);
+        }
+        return parts;
+    }
+
+    // the result's root may have a stale parent
+    @Nullable
+    private static Node merge(@Nullable Node left, @Nullable Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        } else {
+            right.left = merge(left, right.left);
+            return update(right);
+        }
+    }
+
+    // recomputes `node`'s size and re-parents its children
+    private static Node update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null) {
+            node.left.parent = node;
+        }
+        if (node.right != null) {
+            node.right.parent = node;
+        }
+        return node;
+    }
+
+    private static int size(@Nullable Node node) {
+        return node != null ? node.size : 0;
+    }
+}
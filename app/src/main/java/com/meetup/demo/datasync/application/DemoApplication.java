@@ -18,6 +18,29 @@ public class DemoApplication extends Application {
                 .build();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        component.memoryTrimmer().trim(keepFraction(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        component.memoryTrimmer().trim(0);
+    }
+
+    // in-memory caches can be rebuilt from disk, so give up more the closer we are to being killed
+    private static float keepFraction(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        } else {
+            return 0.75f;
+        }
+    }
+
     public static AppComponent component(Context context) {
         return ((DemoApplication) context.getApplicationContext()).component;
     }
@@ -0,0 +1,29 @@
+package com.meetup.demo.datasync.bus;
+
+import java.nio.ByteBuffer;
+
+import com.meetup.demo.datasync.model.MemberCodec;
+import com.meetup.util.EventCodec;
+
+/**
+ * Encodes a `MemberUpdate` as its old member then its new one, each as written by `MemberCodec`.
+ */
+public class MemberUpdateCodec implements EventCodec<MemberUpdate> {
+    private final MemberCodec members = new MemberCodec();
+
+    @Override
+    public int encodedSize(MemberUpdate update) {
+        return members.encodedSize(update.oldMember) + members.encodedSize(update.newMember);
+    }
+
+    @Override
+    public void encode(MemberUpdate update, ByteBuffer buffer) {
+        members.encode(update.oldMember, buffer);
+        members.encode(update.newMember, buffer);
+    }
+
+    @Override
+    public MemberUpdate decode(ByteBuffer buffer) {
+        return new MemberUpdate(members.decodeMember(buffer), members.decodeMember(buffer));
+    }
+}
@@ -7,6 +7,8 @@ import dagger.Component;
 import com.meetup.demo.datasync.MembersAdapter;
 import com.meetup.demo.datasync.ViewMemberDetails;
 import com.meetup.demo.datasync.ViewMembers;
+import com.meetup.util.MemoryTrimmer;
+import com.meetup.util.Metrics;
 
 @Singleton
 @Component(modules = { AppModule.class, SchedulerModule.class })
@@ -14,4 +16,8 @@ public interface AppComponent {
     void inject(MembersAdapter target);
     void inject(ViewMembers target);
     void inject(ViewMemberDetails target);
+
+    MemoryTrimmer memoryTrimmer();
+
+    Metrics metrics();
 }
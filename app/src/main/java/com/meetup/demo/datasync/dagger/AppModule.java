@@ -1,6 +1,12 @@
 package com.meetup.demo.datasync.dagger;
 
+import android.app.ActivityManager;
 import android.app.Application;
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -10,14 +16,35 @@ import dagger.Provides;
 import rx.Scheduler;
 import rx.android.schedulers.AndroidSchedulers;
 
+import com.meetup.demo.datasync.api.CoalescingDemoApi;
 import com.meetup.demo.datasync.api.DemoApi;
 import com.meetup.demo.datasync.api.DemoApiBase;
+import com.meetup.demo.datasync.api.InstrumentedDemoApi;
 import com.meetup.demo.datasync.bus.MemberUpdate;
+import com.meetup.demo.datasync.bus.MemberUpdateCodec;
+import com.meetup.demo.datasync.model.Member;
+import com.meetup.demo.datasync.model.MemberCodec;
+import com.meetup.util.DiskPageCache;
+import com.meetup.util.EventJournal;
+import com.meetup.util.FetchScheduler;
+import com.meetup.util.MemoryTrimmer;
+import com.meetup.util.Metrics;
 import com.meetup.util.RealtimeScheduler;
 import com.meetup.util.RxBus;
 
 @Module(includes = SchedulerModule.class)
 public class AppModule {
+    private static final long MEMBER_PAGES_MAX_BYTES = 1024 * 1024;
+    // share of the heap the in-memory member pages may take
+    private static final int MEMBER_PAGES_HEAP_DIVISOR = 128;
+    // short next to API latency, long enough to catch requests made in the same frame
+    private static final long API_BATCH_WINDOW_MILLIS = 20;
+    // subscribers only need the latest update per member, so these rarely fill up
+    private static final int MEMBER_UPDATES_MAX_EVENTS = 1000;
+    private static final long MEMBER_UPDATES_MAX_BYTES = 64 * 1024;
+    // enough to keep the visible page and the next one loading without queueing behind a fling
+    private static final int MAX_CONCURRENT_FETCHES = 2;
+
     Application application;
 
     public AppModule(Application application) {
@@ -33,19 +60,73 @@ public class AppModule {
 
     @Provides
     @Singleton
-    DemoApi provideDemoApi(@Named("io") Scheduler scheduler) {
-        return new DemoApiBase(scheduler);
+    CoalescingDemoApi provideCoalescingDemoApi(@Named("io") Scheduler ioScheduler,
+                                               @Named("computation") Scheduler scheduler) {
+        return new CoalescingDemoApi(new DemoApiBase(ioScheduler), API_BATCH_WINDOW_MILLIS,
+                scheduler);
+    }
+
+    @Provides
+    @Singleton
+    DemoApi provideDemoApi(CoalescingDemoApi api, Metrics metrics) {
+        // outermost, so latency includes time spent waiting to be coalesced
+        return new InstrumentedDemoApi(api, metrics);
+    }
+
+    @Provides
+    @Singleton
+    Metrics provideMetrics() {
+        return new Metrics();
+    }
+
+    @Provides
+    @Singleton
+    DiskPageCache<Member> provideMemberPages(@Named("io") Scheduler scheduler) {
+        File dir = new File(application.getCacheDir(), "member-pages");
+        return new DiskPageCache<>(dir, new MemberCodec(), MEMBER_PAGES_MAX_BYTES, scheduler);
+    }
+
+    @Provides
+    @Singleton
+    FetchScheduler provideFetchScheduler() {
+        return new FetchScheduler(MAX_CONCURRENT_FETCHES);
+    }
+
+    @Provides
+    @Singleton
+    MemoryTrimmer provideMemoryTrimmer() {
+        return new MemoryTrimmer();
+    }
+
+    @Provides
+    @Named("memberPagesMemoryBytes")
+    long provideMemberPagesMemoryBytes() {
+        ActivityManager activityManager =
+                (ActivityManager) application.getSystemService(Context.ACTIVITY_SERVICE);
+        // the heap limit in MB, which is larger on bigger devices
+        return activityManager.getMemoryClass() * 1024L * 1024 / MEMBER_PAGES_HEAP_DIVISOR;
     }
 
     @Provides
     @Singleton
-    RxBus provideBus(@Named("computation") Scheduler scheduler) {
-        return new RxBus(scheduler);
+    RxBus provideBus(@Named("computation") Scheduler scheduler, Metrics metrics) {
+        return new RxBus(scheduler, metrics);
     }
 
     @Provides
     @Singleton
     RxBus.Driver<MemberUpdate> provideMemberEditBus(RxBus bus) {
-        return new RxBus.Driver<>(bus, MemberUpdate.class);
+        MemberUpdateCodec codec = new MemberUpdateCodec();
+        // kept on disk so a screen restored after process death still sees what it missed
+        EventJournal<MemberUpdate> journal = new EventJournal<>(
+                new File(application.getCacheDir(), "member-updates"), codec,
+                TimeUnit.SECONDS.toMillis(RxBus.TTL_SECONDS),
+                System.currentTimeMillis() - SystemClock.elapsedRealtime());
+        RxBus.ReplayPolicy<MemberUpdate> policy = RxBus.ReplayPolicy.<MemberUpdate>unbounded()
+                .maxEvents(MEMBER_UPDATES_MAX_EVENTS)
+                .maxBytes(MEMBER_UPDATES_MAX_BYTES, codec::encodedSize)
+                .coalesceBy(update -> update.newMember.id)
+                .persistTo(journal);
+        return new RxBus.Driver<>(bus, MemberUpdate.class, policy);
     }
 }
@@ -0,0 +1,23 @@
+package com.meetup.demo.datasync.model;
+
+/**
+ * One entry in the member list's change log.  `index` is the position the change applies at,
+ * in the list as it was right before the change, so a log has to be applied in order.
+ */
+public class MemberChange {
+    public enum Type { INSERT, DELETE, RENAME }
+
+    // version of the list right after this change
+    public final long version;
+    public final Type type;
+    public final int index;
+    // the inserted or renamed member, or the member that was deleted
+    public final Member member;
+
+    public MemberChange(long version, Type type, int index, Member member) {
+        this.version = version;
+        this.type = type;
+        this.index = index;
+        this.member = member;
+    }
+}
@@ -0,0 +1,259 @@
+package com.meetup.demo.datasync.model;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.meetup.util.PageCodec;
+
+/**
+ * Compact, versioned binary encoding of `Member`s, usable anywhere a `ByteBuffer` is, unlike
+ * `Parcel`.
+ *
+ * A page is a version byte, a flags byte and a count, then all ids as one column of longs, then
+ * the names.  Each name is its UTF-8 length followed by the bytes, or -1 for null.  With
+ * `shareNames`, a name seen earlier in the page is written as a back-reference `-2 - n` to the
+ * n-th distinct name instead.  A single member is a version byte, its id and its name.
+ *
+ * UTF-8 is read and written directly against the buffer, so encoding allocates nothing unless
+ * sharing names and decoding allocates little beyond the `Member`s themselves.
+ */
+public class MemberCodec implements PageCodec<Member> {
+    static final byte VERSION = 1;
+    static final int FLAG_SHARED_NAMES = 1;
+    private static final int NULL_NAME = -1;
+    // version, flags, count
+    private static final int PAGE_HEADER_SIZE = 1 + 1 + 4;
+
+    // names in buffers without a backing array are copied through this, grown as needed
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64];
+        }
+    };
+
+    private final boolean shareNames;
+
+    public MemberCodec() {
+        this(false);
+    }
+
+    /**
+     * @param shareNames Write repeated names within a page once.  Worth it when names repeat
+     *                   often; otherwise it only costs a map lookup per member.
+     */
+    public MemberCodec(boolean shareNames) {
+        this.shareNames = shareNames;
+    }
+
+    @Override
+    public int encodedSize(List<Member> members) {
+        int size = PAGE_HEADER_SIZE + 8 * members.size();
+        Map<String, Integer> seen = shareNames ? new HashMap<>() : null;
+        for (int i = 0, n = members.size(); i < n; i++) {
+            String name = members.get(i).name;
+            if (seen != null && name != null) {
+                if (seen.containsKey(name)) {
+                    size += 4;
+                    continue;
+                }
+                seen.put(name, seen.size());
+            }
+            size += nameSize(name);
+        }
+        return size;
+    }
+
+    @Override
+    public void encode(List<Member> members, ByteBuffer buffer) {
+        int count = members.size();
+        buffer.put(VERSION);
+        buffer.put((byte) (shareNames ? FLAG_SHARED_NAMES : 0));
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(members.get(i).id);
+        }
+        Map<String, Integer> seen = shareNames ? new HashMap<>() : null;
+        for (int i = 0; i < count; i++) {
+            String name = members.get(i).name;
+            if (seen != null && name != null) {
+                Integer ref = seen.get(name);
+                if (ref != null) {
+                    buffer.putInt(-2 - ref);
+                    continue;
+                }
+                seen.put(name, seen.size());
+            }
+            putName(name, buffer);
+        }
+    }
+
+    @Override
+    public List<Member> decode(ByteBuffer buffer) {
+        checkVersion(buffer);
+        boolean shared = (buffer.get() & FLAG_SHARED_NAMES) != 0;
+        int count = buffer.getInt();
+        // every member takes at least an id and a name length
+        if (count < 0 || count > buffer.remaining() / 12) {
+            throw new IllegalArgumentException("bad count " + count);
+        }
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = buffer.getLong();
+        }
+        List<String> distinct = shared ? new ArrayList<>() : null;
+        List<Member> members = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            String name;
+            if (length < NULL_NAME) {
+                int ref = -2 - length;
+                if (distinct == null || ref >= distinct.size()) {
+                    throw new IllegalArgumentException("bad name reference " + ref);
+                }
+                name = distinct.get(ref);
+            } else {
+                checkNameLength(length, buffer);
+                name = getName(length, buffer);
+                if (distinct != null && name != null) {
+                    distinct.add(name);
+                }
+            }
+            members.add(new Member(ids[i], name));
+        }
+        return members;
+    }
+
+    public int encodedSize(Member member) {
+        return 1 + 8 + nameSize(member.name);
+    }
+
+    public void encode(Member member, ByteBuffer buffer) {
+        buffer.put(VERSION);
+        buffer.putLong(member.id);
+        putName(member.name, buffer);
+    }
+
+    /**
+     * Reads a member written by `encode(Member, ByteBuffer)`.
+     *
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    public Member decodeMember(ByteBuffer buffer) {
+        checkVersion(buffer);
+        long id = buffer.getLong();
+        int length = buffer.getInt();
+        checkNameLength(length, buffer);
+        return new Member(id, getName(length, buffer));
+    }
+
+    private static void checkVersion(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported version " + version);
+        }
+    }
+
+    private static void checkNameLength(int length, ByteBuffer buffer) {
+        if (length < NULL_NAME || length > buffer.remaining()) {
+            throw new IllegalArgumentException("bad name length " + length);
+        }
+    }
+
+    private static int nameSize(String name) {
+        return 4 + (name != null ? utf8Length(name) : 0);
+    }
+
+    private static void putName(String name, ByteBuffer buffer) {
+        if (name == null) {
+            buffer.putInt(NULL_NAME);
+            return;
+        }
+        buffer.putInt(utf8Length(name));
+        putUtf8(name, buffer);
+    }
+
+    /**
+     * Reads `length` bytes of UTF-8, straight from the backing array if there is one.  The length
+     * must have been checked against the buffer.
+     */
+    private static String getName(int length, ByteBuffer buffer) {
+        if (length == NULL_NAME) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+            return decodeUtf8(buffer.array(), offset, length);
+        }
+        byte[] scratch = SCRATCH.get();
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+            SCRATCH.set(scratch);
+        }
+        buffer.get(scratch, 0, length);
+        return decodeUtf8(scratch, 0, length);
+    }
+
+    // Unpaired surrogates are written as '?', like String.getBytes does.
+    static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putUtf8(String s, ByteBuffer buffer) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xf0 | cp >> 18));
+                buffer.put((byte) (0x80 | cp >> 12 & 0x3f));
+                buffer.put((byte) (0x80 | cp >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+
+    private static String decodeUtf8(byte[] bytes, int offset, int length) {
+        // names are nearly always ASCII, which decodes byte for byte without UTF-8's checks
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (bytes[i] < 0) {
+                return new String(bytes, offset, length, Charsets.UTF_8);
+            }
+        }
+        return new String(bytes, offset, length, Charsets.US_ASCII);
+    }
+}
@@ -0,0 +1,284 @@
+package com.meetup.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import rx.Observable;
+import rx.Scheduler;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Disk tier for `PaginationCache`: one file per page in `dir`, encoded with a `PageCodec` and read
+ * back through a memory mapping.  Files are evicted least recently used first once they add up
+ * to more than `maxBytes`.
+ *
+ * Each page is stored with the total item count reported when it was fetched.  Pages are
+ * positional, so once the total changes every other page on disk may be shifted; writing a page
+ * with a different total than the rest drops the rest.
+ *
+ * Plain java.io/java.nio only, so it runs in JVM tests.
+ */
+public class DiskPageCache<T> {
+    static final int MAGIC = 0x50474331;  // "PGC1"
+    // magic, total, payload length
+    static final int HEADER_SIZE = 12;
+    private static final String PREFIX = "page-";
+    private static final String SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    public static final class Page<T> {
+        public final List<T> items;
+        // total item count when the page was written
+        public final int total;
+
+        Page(List<T> items, int total) {
+            this.items = items;
+            this.total = total;
+        }
+    }
+
+    private final File dir;
+    private final PageCodec<T> codec;
+    private final long maxBytes;
+    private final Scheduler scheduler;
+
+    // file sizes by page, least recently used first; guarded by this
+    private final LinkedHashMap<Integer, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private int total = -1;
+    private boolean initialized;
+
+    /**
+     * @param scheduler Scheduler `read(int)` does its IO on
+     */
+    public DiskPageCache(File dir, PageCodec<T> codec, long maxBytes, Scheduler scheduler) {
+        checkArgument(maxBytes > 0);
+        this.dir = dir;
+        this.codec = codec;
+        this.maxBytes = maxBytes;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Emits the page if it's on disk, otherwise just completes.
+     */
+    public Observable<Page<T>> read(int page) {
+        return Observable.<Page<T>>create(subscriber -> {
+            Page<T> cached = get(page);
+            if (cached != null) {
+                subscriber.onNext(cached);
+            }
+            subscriber.onCompleted();
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Emits `getTotal()`, doing the IO on the scheduler `read(int)` uses.
+     */
+    public Observable<Integer> readTotal() {
+        return Observable.<Integer>create(subscriber -> {
+            subscriber.onNext(getTotal());
+            subscriber.onCompleted();
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Synchronous `read(int)`.  Unreadable files are deleted and treated as missing.
+     */
+    @Nullable
+    public synchronized Page<T> get(int page) {
+        init();
+        if (sizes.get(page) == null) {
+            return null;
+        }
+        File file = fileFor(page);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int pageTotal = readHeader(buffer);
+            if (buffer.getInt() != buffer.remaining()) {
+                throw new IllegalArgumentException("truncated page file");
+            }
+            List<T> items = codec.decode(buffer);
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return new Page<>(items, pageTotal);
+        } catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+            remove(page);
+            return null;
+        }
+    }
+
+    /**
+     * Persists `items` as `page`, replacing any previous version.  If `total` differs from the
+     * total of the pages already on disk, they are dropped first.  IO errors are swallowed; the
+     * disk tier is best-effort.
+     */
+    public synchronized void write(int page, List<T> items, int total) {
+        init();
+        if (total != this.total) {
+            clear();
+            this.total = total;
+        }
+        int payloadSize = codec.encodedSize(items);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        buffer.putInt(MAGIC).putInt(total).putInt(payloadSize);
+        codec.encode(items, buffer);
+        buffer.flip();
+
+        File file = fileFor(page);
+        File temp = new File(dir, file.getName() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        Long oldSize = sizes.put(page, file.length());
+        totalBytes += file.length() - (oldSize != null ? oldSize : 0);
+        trim();
+    }
+
+    /**
+     * Total item count the pages on disk were written with, or -1 if there are none.
+     */
+    public synchronized int getTotal() {
+        init();
+        return total;
+    }
+
+    public synchronized long sizeBytes() {
+        init();
+        return totalBytes;
+    }
+
+    public synchronized void invalidateAll() {
+        init();
+        clear();
+    }
+
+    // evict least recently used pages until within budget
+    private void trim() {
+        Iterator<Map.Entry<Integer, Long>> it = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Integer, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            //noinspection ResultOfMethodCallIgnored
+            fileFor(eldest.getKey()).delete();
+        }
+    }
+
+    private void clear() {
+        for (int page : sizes.keySet()) {
+            //noinspection ResultOfMethodCallIgnored
+            fileFor(page).delete();
+        }
+        sizes.clear();
+        totalBytes = 0;
+        total = -1;
+    }
+
+    private void remove(int page) {
+        Long size = sizes.remove(page);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        fileFor(page).delete();
+    }
+
+    // scan the directory once, lazily, so construction doesn't touch the disk
+    private void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        File newest = null;
+        for (File file : files) {
+            String name = file.getName();
+            Integer page = parsePage(name);
+            if (page == null) {
+                // leftovers from an interrupted write
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                continue;
+            }
+            sizes.put(page, file.length());
+            totalBytes += file.length();
+            newest = file;
+        }
+        if (newest != null) {
+            total = readTotal(newest);
+            if (total == -1) {
+                clear();
+            }
+        }
+        trim();
+    }
+
+    private int readTotal(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            raf.getChannel().read(header, 0);
+            header.flip();
+            return readHeader(header);
+        } catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+            return -1;
+        }
+    }
+
+    // returns the page total, leaving the buffer at the payload length
+    private static int readHeader(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("not a page file");
+        }
+        return buffer.getInt();
+    }
+
+    @Nullable
+    private static Integer parsePage(String name) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private File fileFor(int page) {
+        return new File(dir, PREFIX + page + SUFFIX);
+    }
+}
@@ -0,0 +1,25 @@
+package com.meetup.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding for a single event, used to persist events outside the process.
+ */
+public interface EventCodec<T> {
+    /**
+     * Exact number of bytes `encode` will write for `event`.
+     */
+    int encodedSize(T event);
+
+    /**
+     * Writes `event` at the buffer's position, advancing it by `encodedSize(event)`.
+     */
+    void encode(T event, ByteBuffer buffer);
+
+    /**
+     * Reads an event written by `encode` from the buffer's position.
+     *
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    T decode(ByteBuffer buffer);
+}
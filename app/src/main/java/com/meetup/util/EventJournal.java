@@ -0,0 +1,251 @@
+package com.meetup.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Append-only log of events on disk, so `RxBus` can replay events posted before the process was
+ * killed.  Writes go straight into a memory-mapped segment file, so a post costs a copy into the
+ * page cache and survives the process dying right after.
+ *
+ * Segments are files in `dir` holding a header (magic, epoch, time of the first record) and then
+ * records of `[length][time][event]`, where `length` covers the whole record and is written last,
+ * so a torn write reads as the end of the segment.  A new segment is started every quarter of
+ * `ttlMillis` or when the current one is full, and whole segments are deleted once everything in
+ * them is older than `ttlMillis`.
+ *
+ * Times are `SystemClock.elapsedRealtime()`, which restarts at boot.  Segments are tagged with
+ * `epochMillis`, the wall clock time of boot, and segments from another boot are dropped.
+ *
+ * Plain java.io/java.nio only, so it runs in JVM tests.  IO errors are swallowed; like
+ * `DiskPageCache`, the journal is best-effort.
+ */
+public class EventJournal<T> {
+    static final int MAGIC = 0x45564a31;  // "EVJ1"
+    // magic, epoch, start time
+    static final int HEADER_SIZE = 20;
+    // length, time
+    static final int RECORD_HEADER_SIZE = 12;
+    static final int SEGMENT_BYTES = 64 * 1024;
+    static final int MAX_SEGMENTS = 16;
+    // how far the wall clock may have been adjusted before we think it's another boot
+    static final long EPOCH_TOLERANCE_MILLIS = 10 * 1000;
+    private static final String PREFIX = "events-";
+    private static final String SUFFIX = ".log";
+
+    public static final class Record<T> {
+        public final long time;
+        public final T value;
+
+        Record(long time, T value) {
+            this.time = time;
+            this.value = value;
+        }
+    }
+
+    private static final class Segment {
+        final long sequence;
+        // time of the first record
+        final long start;
+
+        Segment(long sequence, long start) {
+            this.sequence = sequence;
+            this.start = start;
+        }
+    }
+
+    private final File dir;
+    private final EventCodec<T> codec;
+    private final long ttlMillis;
+    private final long rollMillis;
+    private final long epochMillis;
+
+    // oldest first; guarded by this
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextSequence;
+    // segment being appended to, if any
+    @Nullable private MappedByteBuffer current;
+    private long currentStart;
+    private boolean initialized;
+
+    /**
+     * @param ttlMillis How long records are kept
+     * @param epochMillis Wall clock time at boot, i.e. `System.currentTimeMillis()` minus
+     *                    `SystemClock.elapsedRealtime()`
+     */
+    public EventJournal(File dir, EventCodec<T> codec, long ttlMillis, long epochMillis) {
+        checkArgument(ttlMillis > 0);
+        this.dir = dir;
+        this.codec = codec;
+        this.ttlMillis = ttlMillis;
+        this.rollMillis = Math.max(1, ttlMillis / 4);
+        this.epochMillis = epochMillis;
+    }
+
+    /**
+     * @return Records at or after `since`, oldest first.  Reading a segment stops at its first
+     *         unreadable record.
+     */
+    public synchronized List<Record<T>> read(long since) {
+        init();
+        List<Record<T>> records = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && segments.get(i + 1).start <= since) {
+                // everything in here is older than the next segment
+                continue;
+            }
+            ByteBuffer buffer = map(segments.get(i).sequence);
+            if (buffer != null) {
+                buffer.position(HEADER_SIZE);
+                readRecords(buffer, since, records);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Appends `value` at `time`, which must not be before the last record's.
+     */
+    public synchronized void append(long time, T value) {
+        init();
+        int recordSize = RECORD_HEADER_SIZE + codec.encodedSize(value);
+        if (current == null || current.remaining() < recordSize ||
+                time - currentStart >= rollMillis) {
+            roll(time, recordSize);
+            if (current == null) {
+                return;
+            }
+        }
+        int start = current.position();
+        current.position(start + 4);
+        current.putLong(time);
+        codec.encode(value, current);
+        current.putInt(start, recordSize);
+    }
+
+    private void readRecords(ByteBuffer buffer, long since, List<Record<T>> records) {
+        try {
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                if (length < RECORD_HEADER_SIZE || length > buffer.remaining() + 4) {
+                    // zero means the end; anything else is garbage
+                    return;
+                }
+                long time = buffer.getLong();
+                int end = start + length;
+                if (time >= since) {
+                    buffer.limit(end);
+                    records.add(new Record<>(time, codec.decode(buffer)));
+                    buffer.limit(buffer.capacity());
+                }
+                buffer.position(end);
+            }
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            // keep what we have so far
+        }
+    }
+
+    private void roll(long time, int recordSize) {
+        current = null;
+        long sequence = nextSequence++;
+        File file = fileFor(sequence);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int capacity = Math.max(SEGMENT_BYTES, HEADER_SIZE + recordSize);
+            MappedByteBuffer buffer =
+                    raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buffer.putInt(MAGIC).putLong(epochMillis).putLong(time);
+            current = buffer;
+            currentStart = time;
+            segments.add(new Segment(sequence, time));
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        expire(time);
+    }
+
+    // deletes segments that only hold expired records, and the oldest ones if there are too many
+    private void expire(long now) {
+        while (segments.size() > MAX_SEGMENTS ||
+                (segments.size() >= 2 && segments.get(1).start <= now - ttlMillis)) {
+            //noinspection ResultOfMethodCallIgnored
+            fileFor(segments.remove(0).sequence).delete();
+        }
+    }
+
+    @Nullable
+    private ByteBuffer map(long sequence) {
+        try (RandomAccessFile raf = new RandomAccessFile(fileFor(sequence), "r")) {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // scan the directory once, lazily, so construction doesn't touch the disk
+    private void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Long sequence = parseSequence(file.getName());
+            Long start = sequence != null ? readStart(sequence) : null;
+            if (start == null) {
+                // not ours, unreadable or from another boot
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                continue;
+            }
+            segments.add(new Segment(sequence, start));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+        }
+        Collections.sort(segments, (a, b) -> Long.compare(a.sequence, b.sequence));
+    }
+
+    @Nullable
+    private Long readStart(long sequence) {
+        ByteBuffer header = map(sequence);
+        if (header == null || header.remaining() < HEADER_SIZE || header.getInt() != MAGIC ||
+                Math.abs(header.getLong() - epochMillis) > EPOCH_TOLERANCE_MILLIS) {
+            return null;
+        }
+        return header.getLong();
+    }
+
+    private File fileFor(long sequence) {
+        return new File(dir, PREFIX + sequence + SUFFIX);
+    }
+
+    @Nullable
+    private static Long parseSequence(String name) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.meetup.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.subscriptions.Subscriptions;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Runs fetches, e.g. a `PaginationCache`'s page loads, with at most `maxConcurrent` in flight.
+ * The rest wait in a queue and start by priority, then most recently requested first, so after a
+ * fling the page the user stopped on goes ahead of pages they scrolled past.
+ *
+ * A fetch starts when a slot frees up after its task is subscribed to, and gives the slot back
+ * when it terminates or is unsubscribed from.  Unsubscribing before then takes it off the queue
+ * without it ever running.  Share one scheduler between caches that hit the same backend.
+ *
+ * Thread-safe.
+ */
+public class FetchScheduler {
+    public enum Priority {
+        // lowest first
+        BACKGROUND, PREFETCH, VISIBLE
+    }
+
+    /**
+     * A fetch waiting for, or holding, a slot.  Subscribe to `observable` to queue it.
+     */
+    public final class Task<T> {
+        public final Observable<T> observable;
+        private final Observable<T> fetch;
+        // guarded by the scheduler
+        private Priority priority;
+        private long sequence;
+        private int queued;
+
+        Task(Observable<T> fetch, Priority priority) {
+            this.fetch = fetch;
+            this.priority = priority;
+            this.observable = Observable.create((Observable.OnSubscribe<T>) this::enqueue);
+        }
+
+        /**
+         * Raises or lowers the priority, and moves the task ahead of others of that priority as if
+         * it had just been requested.  Only matters while it's queued.
+         */
+        public void setPriority(Priority priority) {
+            synchronized (FetchScheduler.this) {
+                this.priority = checkNotNull(priority);
+                this.sequence = nextSequence++;
+            }
+        }
+
+        public Priority getPriority() {
+            synchronized (FetchScheduler.this) {
+                return priority;
+            }
+        }
+
+        /**
+         * @return whether the fetch is waiting for a slot and hasn't started yet
+         */
+        public boolean isQueued() {
+            synchronized (FetchScheduler.this) {
+                return queued > 0;
+            }
+        }
+
+        private void enqueue(Subscriber<? super T> child) {
+            Pending<T> pending = new Pending<>(this, child);
+            synchronized (FetchScheduler.this) {
+                sequence = nextSequence++;
+                queue.add(pending);
+                queued++;
+            }
+            child.add(Subscriptions.create(() -> {
+                synchronized (FetchScheduler.this) {
+                    if (queue.remove(pending)) {
+                        queued--;
+                    }
+                }
+            }));
+            drain();
+        }
+    }
+
+    // a subscription to a task, waiting for a slot
+    private static final class Pending<T> {
+        final Task<T> task;
+        final Subscriber<? super T> child;
+
+        Pending(Task<T> task, Subscriber<? super T> child) {
+            this.task = task;
+            this.child = child;
+        }
+    }
+
+    private final int maxConcurrent;
+    // guarded by this
+    private final List<Pending<?>> queue = new ArrayList<>();
+    private int running;
+    private long nextSequence;
+
+    /**
+     * @param maxConcurrent Fetches allowed in flight at once
+     */
+    public FetchScheduler(int maxConcurrent) {
+        checkArgument(maxConcurrent > 0);
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Wraps `fetch` so it only runs once a slot is free.  Nothing happens until the task's
+     * `observable` is subscribed to.
+     */
+    public <T> Task<T> submit(Observable<T> fetch, Priority priority) {
+        return new Task<>(checkNotNull(fetch), checkNotNull(priority));
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    private void drain() {
+        while (true) {
+            Pending<?> next;
+            synchronized (this) {
+                if (running >= maxConcurrent) {
+                    return;
+                }
+                next = poll();
+                if (next == null) {
+                    return;
+                }
+                next.task.queued--;
+                running++;
+            }
+            start(next);
+        }
+    }
+
+    // the queue is short, about one entry per page, so a scan beats keeping it sorted
+    @Nullable
+    private Pending<?> poll() {
+        int best = -1;
+        for (int i = 0; i < queue.size(); i++) {
+            if (best < 0 || isBefore(queue.get(i).task, queue.get(best).task)) {
+                best = i;
+            }
+        }
+        return best >= 0 ? queue.remove(best) : null;
+    }
+
+    private static boolean isBefore(Task<?> a, Task<?> b) {
+        int order = a.priority.compareTo(b.priority);
+        return order != 0 ? order > 0 : a.sequence > b.sequence;
+    }
+
+    private <T> void start(Pending<T> pending) {
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                synchronized (this) {
+                    running--;
+                }
+                drain();
+            }
+        };
+        if (pending.child.isUnsubscribed()) {
+            // lost a race with unsubscribing
+            release.run();
+            return;
+        }
+        pending.task.fetch
+                .finallyDo(release::run)
+                .doOnUnsubscribe(release::run)
+                .unsafeSubscribe(pending.child);
+    }
+}
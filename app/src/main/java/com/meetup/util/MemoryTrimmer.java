@@ -0,0 +1,43 @@
+package com.meetup.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import rx.Subscription;
+import rx.subscriptions.Subscriptions;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Passes memory pressure on to whatever can give memory back, such as a `PaginationCache`, so it
+ * can be handled in one place, e.g. `Application.onTrimMemory`.  Plain Java, so pressure can be
+ * simulated in JVM tests by calling `trim(float)`.
+ *
+ * Thread-safe.
+ */
+public class MemoryTrimmer {
+    public interface Trimmable {
+        /**
+         * @param fraction How much of its usual budget to keep, from 0 to 1
+         */
+        void trim(float fraction);
+    }
+
+    private final List<Trimmable> trimmables = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return Unsubscribe to stop trimming `trimmable`, e.g. once its screen is destroyed
+     */
+    public Subscription register(Trimmable trimmable) {
+        checkNotNull(trimmable);
+        trimmables.add(trimmable);
+        return Subscriptions.create(() -> trimmables.remove(trimmable));
+    }
+
+    public void trim(float fraction) {
+        checkArgument(fraction >= 0 && fraction <= 1);
+        for (Trimmable trimmable : trimmables) {
+            trimmable.trim(fraction);
+        }
+    }
+}
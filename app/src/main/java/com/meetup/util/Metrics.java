@@ -0,0 +1,255 @@
+package com.meetup.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Registry of named counters and histograms for instrumenting hot paths.  Look a metric up once,
+ * e.g. in a constructor, and keep it: recording is then lock-free and allocates nothing.
+ * `snapshot()` reads everything at once, for tests and dumps.
+ *
+ * Histograms are HDR-style: values are bucketed by power of two, and each power of two is split
+ * into 16 linear sub-buckets, so any value is recorded to within 1/16 (6.25%) of itself in a
+ * fixed array of about a thousand counts.
+ *
+ * Plain Java, so it can be read in JVM tests.  Thread-safe.
+ *
+ * A concrete class rather than an interface: there is no second implementation to swap in.
+ * Tests and benchmarks construct their own `Metrics` and read it back through `snapshot()`, and
+ * code that isn't given one (e.g. `RxBus(Scheduler)`) records into a private instance nobody
+ * reads; an uncontended atomic add is cheap enough next to the work it measures that a no-op
+ * implementation wouldn't pay for the indirection.
+ */
+public class Metrics {
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void decrement() {
+            value.decrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    public static final class Histogram {
+        // bits of each value kept below its leading one
+        static final int SUB_BUCKET_BITS = 4;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // values below `SUB_BUCKETS` get a bucket each, then `SUB_BUCKETS` per power of two
+        static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * @param value Negative values are recorded as 0
+         */
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(bucket(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            for (long current = max.get(); value > current; current = max.get()) {
+                if (max.compareAndSet(current, value)) {
+                    break;
+                }
+            }
+        }
+
+        public Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+            }
+            return new Snapshot(copy, count.get(), sum.get(), max.get());
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BUCKET_BITS;
+            int sub = (int) (value >>> shift) - SUB_BUCKETS;
+            return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+        }
+
+        // largest value that lands in `bucket`
+        static long highestIn(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+
+        /**
+         * Histogram contents at one point in time.  Counts are read one by one while recording
+         * may go on, so they can be off by the few values recorded meanwhile.
+         */
+        public static final class Snapshot {
+            private final long[] counts;
+            private final long count;
+            private final long sum;
+            private final long max;
+
+            Snapshot(long[] counts, long count, long sum, long max) {
+                this.counts = counts;
+                this.count = count;
+                this.sum = sum;
+                this.max = max;
+            }
+
+            public long getCount() {
+                return count;
+            }
+
+            public long getMax() {
+                return max;
+            }
+
+            public double getMean() {
+                return count > 0 ? (double) sum / count : 0;
+            }
+
+            /**
+             * @param percentile From 0 to 100
+             * @return A value at least as large as `percentile`% of recorded values, to within
+             *         the histogram's precision, and no larger than the max
+             */
+            public long getValueAtPercentile(double percentile) {
+                checkArgument(percentile >= 0 && percentile <= 100);
+                long total = 0;
+                for (long bucketCount : counts) {
+                    total += bucketCount;
+                }
+                long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank) {
+                        return Math.min(highestIn(i), max);
+                    }
+                }
+                return 0;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d",
+                        count, getMean(), getValueAtPercentile(50), getValueAtPercentile(90),
+                        getValueAtPercentile(99), max);
+            }
+        }
+    }
+
+    /**
+     * Every metric at one point in time, sorted by name.
+     */
+    public static final class Snapshot {
+        public final Map<String, Long> counters;
+        public final Map<String, Histogram.Snapshot> histograms;
+
+        Snapshot(Map<String, Long> counters, Map<String, Histogram.Snapshot> histograms) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        /**
+         * @return the counter's value, or 0 if it was never created
+         */
+        public long counter(String name) {
+            Long value = counters.get(name);
+            return value != null ? value : 0;
+        }
+
+        @Nullable
+        public Histogram.Snapshot histogram(String name) {
+            return histograms.get(name);
+        }
+
+        /**
+         * One metric per line.
+         */
+        @Override
+        public String toString() {
+            StringBuilder dump = new StringBuilder();
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                dump.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+            for (Map.Entry<String, Histogram.Snapshot> entry : histograms.entrySet()) {
+                dump.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+            return dump.toString();
+        }
+    }
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @return the counter called `name`, created at 0 on first use
+     */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return the histogram called `name`, created empty on first use
+     */
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, Histogram.Snapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(counterValues, histogramValues);
+    }
+}
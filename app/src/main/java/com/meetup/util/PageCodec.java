@@ -0,0 +1,26 @@
+package com.meetup.util;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Binary encoding for a page of items, used to persist pages outside the Java heap.
+ */
+public interface PageCodec<T> {
+    /**
+     * Exact number of bytes `encode` will write for `items`.
+     */
+    int encodedSize(List<T> items);
+
+    /**
+     * Writes `items` at the buffer's position, advancing it by `encodedSize(items)`.
+     */
+    void encode(List<T> items, ByteBuffer buffer);
+
+    /**
+     * Reads a page written by `encode` from the buffer's position.
+     *
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    List<T> decode(ByteBuffer buffer);
+}
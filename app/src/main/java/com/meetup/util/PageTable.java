@@ -0,0 +1,229 @@
+package com.meetup.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import rx.Observable;
+import rx.Subscription;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Open-addressing hash table of pages keyed by primitive page index, with LRU ordering and a
+ * fixed capacity.  Each `Entry` holds everything `PaginationCache` knows about a page so there is
+ * a single lookup per access and nothing to keep in sync.
+ *
+ * Not thread-safe; callers synchronize on the table.
+ */
+final class PageTable<T> {
+    enum State { LOADING, RESOLVED, FAILED }
+
+    // a `PaginationCache.replace` waiting for the page's fetch to emit
+    static final class Write<T> {
+        final int offset;
+        final T value;
+
+        Write(int offset, T value) {
+            this.offset = offset;
+            this.value = value;
+        }
+    }
+
+    static final class Entry<T> {
+        final int page;
+        State state = State.LOADING;
+        // set once resolved
+        List<T> items;
+        // `items` is a copy only the cache has seen, so it can be written in place
+        boolean owned;
+        // the fetch may still emit
+        boolean fetching = true;
+        // the fetch's slot on the `FetchScheduler`, if there's one and it may still emit
+        @Nullable FetchScheduler.Task<List<T>> task;
+        // `PaginationCache.weigh` summed over `items`
+        long weight;
+        // clock time of the last fetch, for the TTL
+        long resolvedAt;
+        // replaces to apply to whatever the fetch emits next, oldest first
+        @Nullable List<Write<T>> writes;
+        // replays the page to Rx subscribers
+        Observable<List<T>> observable;
+        Subscription subscription = Subscriptions.empty();
+        // set once the entry has left the table; late results must be dropped
+        boolean removed;
+        // loaded by a prefetch and not read since
+        boolean prefetched;
+
+        // LRU links, `newer` towards the head
+        Entry<T> newer;
+        Entry<T> older;
+
+        Entry(int page) {
+            this.page = page;
+        }
+
+        boolean isResolved() {
+            return state == State.RESOLVED;
+        }
+    }
+
+    private final int maxPages;
+    private final Entry<T>[] slots;
+    private final int mask;
+    private int size;
+    // most recently used
+    private Entry<T> head;
+    // least recently used
+    private Entry<T> tail;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    PageTable(int maxPages) {
+        this.maxPages = maxPages;
+        // keep load factor at or below 1/2 so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(1, maxPages * 2 - 1)) << 1;
+        this.slots = (Entry<T>[]) new Entry[capacity];
+        this.mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Nullable
+    Entry<T> get(int page) {
+        for (int i = page & mask; ; i = (i + 1) & mask) {
+            Entry<T> entry = slots[i];
+            if (entry == null || entry.page == page) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Like `get(int)` but also marks the entry as most recently used.
+     */
+    @Nullable
+    Entry<T> touch(int page) {
+        Entry<T> entry = get(page);
+        if (entry != null && entry != head) {
+            unlink(entry);
+            linkHead(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Inserts a new entry for `page` as most recently used.  The page must not be present.
+     *
+     * @return the entry evicted to make room, already marked `removed`, or null
+     */
+    @Nullable
+    Entry<T> insert(Entry<T> entry) {
+        Entry<T> evicted = null;
+        if (size >= maxPages && tail != null) {
+            evicted = tail;
+            remove(evicted);
+        }
+        int i = entry.page & mask;
+        while (slots[i] != null) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = entry;
+        linkHead(entry);
+        size++;
+        return evicted;
+    }
+
+    /**
+     * Removes `entry` if present and marks it `removed`.
+     */
+    boolean remove(Entry<T> entry) {
+        int i = entry.page & mask;
+        while (slots[i] != entry) {
+            if (slots[i] == null) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = null;
+        // backward-shift deletion: move later entries of the probe run into the hole
+        for (int j = (i + 1) & mask; slots[j] != null; j = (j + 1) & mask) {
+            int home = slots[j].page & mask;
+            boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                slots[i] = slots[j];
+                slots[j] = null;
+                i = j;
+            }
+        }
+        unlink(entry);
+        entry.removed = true;
+        size--;
+        return true;
+    }
+
+    /**
+     * @return the least recently used entry, or null if empty.  Follow `newer` from there.
+     */
+    @Nullable
+    Entry<T> oldest() {
+        return tail;
+    }
+
+    /**
+     * @return every entry, most recently used first
+     */
+    List<Entry<T>> entries() {
+        List<Entry<T>> entries = new ArrayList<>(size);
+        for (Entry<T> entry = head; entry != null; entry = entry.older) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Removes every entry, most recently used first.
+     *
+     * @return the removed entries
+     */
+    List<Entry<T>> clear() {
+        List<Entry<T>> removed = new ArrayList<>(size);
+        for (Entry<T> entry = head; entry != null; entry = entry.older) {
+            entry.removed = true;
+            removed.add(entry);
+        }
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+        }
+        head = tail = null;
+        size = 0;
+        return removed;
+    }
+
+    private void linkHead(Entry<T> entry) {
+        entry.newer = null;
+        entry.older = head;
+        if (head != null) {
+            head.newer = entry;
+        }
+        head = entry;
+        if (tail == null) {
+            tail = entry;
+        }
+    }
+
+    private void unlink(Entry<T> entry) {
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else {
+            head = entry.older;
+        }
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else {
+            tail = entry.newer;
+        }
+        entry.newer = entry.older = null;
+    }
+}
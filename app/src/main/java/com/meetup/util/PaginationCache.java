@@ -1,31 +1,90 @@
 package com.meetup.util;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
 
 import rx.Observable;
+import rx.Scheduler;
 import rx.Subscription;
 import rx.observables.ConnectableObservable;
+import rx.subjects.PublishSubject;
+import rx.subscriptions.Subscriptions;
 
 import static com.google.common.base.Preconditions.*;
 
 /**
  * Loading cache that provides a clean interface for fetching items by absolute position.
  * Behind the scenes, pages of items are fetched and cached to minimize expensive data retrieval
- * calls.  Adjacent pages may also be fetched proactively when `prefetchThreshold` is specified.
+ * calls.  Other pages may also be fetched proactively as decided by a `PrefetchStrategy`.
+ *
+ * Cached items can be changed in place with `replace`, `replaceRange`, `insert` and `remove`.
+ * These apply synchronously to resolved pages, copying a page at most once until it's next read
+ * as a whole.  `getVersion()` changes whenever cached items do.
+ *
+ * With a TTL, pages are stale-while-revalidate: a page older than the TTL is still served from
+ * the cache right away, and accessing it refetches it in the background through
+ * `refetchPage(int)`.  Items that came back different are reported to `onPageRefreshed`.
+ *
+ * Besides the page count, the cache can be bounded by weight, an estimate of the memory items take
+ * as given by `weigh(T)`: least recently used pages are dropped once `setMaxWeight` is exceeded.
+ * `trim(float)` shrinks the cache further on demand, e.g. under memory pressure.
+ *
+ * Fetches start right away unless a `FetchScheduler` is set, which caps how many run at once.  It
+ * then starts pages being read before prefetches, and revalidations last.
+ *
+ * Once told what's on screen with `setViewport`, the cache keeps a sliding window of pages around
+ * it: pages are evicted farthest from the viewport first rather than least recently used, so
+ * jumping around doesn't push out the pages next to where the user is.  Pages still loading are
+ * only evicted when every cached page is loading, least recently used first.  Whatever drops a
+ * page still loading, subscribers waiting on it see it complete empty rather than never hear back.
+ *
+ * With `setMetrics`, the cache counts hits and misses per read, loads in flight, evictions and
+ * prefetched pages dropped before they were read, and records how long loads take.
  */
 public abstract class PaginationCache<T> {
     final int pageSize;
-    final int prefetchThreshold;
-    final LoadingCache<Integer, Observable<List<T>>> pages;
-    final ConcurrentMap<Integer, Subscription> subs;
+    final int maxPagesCached;
+    final PrefetchStrategy prefetchStrategy;
+    final long ttlMillis;
+    @Nullable final Scheduler clock;
+    // guarded by itself
+    final PageTable<T> pages;
+    private final PrefetchStrategy.Pages prefetchTarget = new PrefetchTarget();
+    // guarded by `pages`
+    private long version;
+    private long weight;
+    private long maxWeight = Long.MAX_VALUE;
+    @Nullable private FetchScheduler fetchScheduler;
+    @Nullable private Stats stats;
+    // pages on screen, or -1 until `setViewport` is called
+    private int viewportFirstPage = -1;
+    private int viewportLastPage = -1;
+
+    // metrics looked up once, so recording doesn't go through the registry
+    private static final class Stats {
+        final Metrics.Counter hits;
+        final Metrics.Counter misses;
+        final Metrics.Counter loadsInFlight;
+        final Metrics.Counter evictions;
+        final Metrics.Counter unreadPrefetches;
+        final Metrics.Histogram loadMicros;
+
+        Stats(Metrics metrics, String name) {
+            hits = metrics.counter(name + ".hits");
+            misses = metrics.counter(name + ".misses");
+            loadsInFlight = metrics.counter(name + ".loadsInFlight");
+            evictions = metrics.counter(name + ".evictions");
+            unreadPrefetches = metrics.counter(name + ".unreadPrefetches");
+            loadMicros = metrics.histogram(name + ".loadMicros");
+        }
+    }
 
     /**
      * Implementations should use `getPageSize()` to fetch the appropriate number of items.
@@ -36,55 +95,74 @@ public abstract class PaginationCache<T> {
      * @param pageSize Page size. Ensure this corresponds with `fetchPage(int)`
      * @param prefetchThreshold Distance threshold to trigger pre-fetching an adjacent page.
      *                          See `get(int)` for more info.  Set to 0 to disable.
-     * @param maxPagesCached
+     * @param maxPagesCached Pages are evicted beyond this, least recently used first
      */
     public PaginationCache(int pageSize, int prefetchThreshold, int maxPagesCached) {
+        this(pageSize,
+                prefetchThreshold > 0 ?
+                        new ThresholdPrefetchStrategy(prefetchThreshold) :
+                        PrefetchStrategy.NONE,
+                maxPagesCached);
+    }
+
+    /**
+     * @param pageSize Page size. Ensure this corresponds with `fetchPage(int)`
+     * @param prefetchStrategy Decides which pages to load ahead of access
+     * @param maxPagesCached Pages are evicted beyond this, least recently used first
+     */
+    public PaginationCache(int pageSize, PrefetchStrategy prefetchStrategy, int maxPagesCached) {
+        this(pageSize, prefetchStrategy, maxPagesCached, 0, null);
+    }
+
+    /**
+     * @param ttlMillis Pages older than this are refetched in the background when accessed.  Set
+     *                  to 0 to keep pages until they're evicted or invalidated.
+     * @param clock Used to tell a page's age.  Required with a TTL
+     */
+    public PaginationCache(int pageSize, PrefetchStrategy prefetchStrategy, int maxPagesCached,
+                           long ttlMillis, @Nullable Scheduler clock) {
+        checkArgument(maxPagesCached > 0);
+        checkArgument(ttlMillis >= 0);
+        checkArgument(ttlMillis == 0 || clock != null, "a TTL needs a clock");
         this.pageSize = pageSize;
-        this.prefetchThreshold = prefetchThreshold;
-        this.subs = Maps.newConcurrentMap();
-        this.pages = CacheBuilder.newBuilder()
-                .maximumSize(maxPagesCached)
-                .removalListener(notification -> {
-                    Integer key = (Integer) notification.getKey();
-                    if (key != null) {
-                        Subscription sub = subs.remove(key);
-                        if (sub != null) {
-                            sub.unsubscribe();
-                        }
-                    }
-                })
-                .build(new CacheLoader<Integer, Observable<List<T>>>() {
-                    @Override
-                    public Observable<List<T>> load(Integer key) throws Exception {
-                        ConnectableObservable<List<T>> obs = fetchPage(key).replay(1);
-                        Subscription oldSub = subs.replace(key, obs.connect());
-                        if (oldSub != null) {
-                            oldSub.unsubscribe();
-                        }
-                        return obs;
-                    }
-                });
+        this.maxPagesCached = maxPagesCached;
+        this.prefetchStrategy = checkNotNull(prefetchStrategy);
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.pages = new PageTable<>(maxPagesCached);
+    }
+
+    /**
+     * Fetches a page again to revalidate it once it's older than the TTL.  Defaults to
+     * `fetchPage(int)`; override to skip anything that wouldn't be newer, e.g. local copies.
+     */
+    protected Observable<List<T>> refetchPage(int page) {
+        return fetchPage(page);
     }
 
     /**
-     * Get item at position `index`. May trigger fetching of the page and an adjacent page if
-     * `prefetchThreshold` is set.  For example, if page size is 10 and `prefetchThreshold` is 2,
-     * page 3 will be fetched upon `get(30)` and `get(31)` and page 5 will be fetched upon `get(38)`
-     * and `get(39)`.
+     * Get item at position `index`. May trigger fetching of the page and, depending on the
+     * `PrefetchStrategy`, other pages nearby.  See `ThresholdPrefetchStrategy` for the behavior
+     * when constructed with `prefetchThreshold`.
      */
     public Observable<T> get(int index) {
         checkArgument(index >= 0);
         int page = index / pageSize;
-        // proactively fetch prev/next page if we're close
-        if (prefetchThreshold > 0) {
-            if (index % pageSize < prefetchThreshold && page >= 1) {
-                getPage(page - 1);
-            } else if (pageSize - (index % pageSize) <= prefetchThreshold) {
-                getPage(page + 1);
+        int offset = index % pageSize;
+        prefetchStrategy.onAccess(index, prefetchTarget);
+        Observable<List<T>> pageObs;
+        synchronized (pages) {
+            PageTable.Entry<T> entry = load(page, false);
+            if (entry.isResolved()) {
+                revalidateIfStale(entry);
+                return offset < entry.items.size() ?
+                        Observable.just(entry.items.get(offset)) :
+                        Observable.empty();
             }
+            pageObs = entry.observable;
         }
-        return getPage(page)
-                .map((results) -> results.get(index % pageSize))
+        return pageObs
+                .map((results) -> results.get(offset))
                 .onErrorResumeNext(error ->
                     error instanceof IndexOutOfBoundsException ?
                             Observable.empty() :
@@ -92,32 +170,928 @@ public abstract class PaginationCache<T> {
                 );
     }
 
+    /**
+     * Synchronous counterpart to `get(int)` for callers on a hot path, e.g. binding views.  Returns
+     * the item at `index` if its page has already resolved, or null if the page is still in flight,
+     * not cached, or doesn't have an item at `index`.  Triggers the same prefetching as `get(int)`
+     * but allocates nothing when the page and its neighbors are resolved.
+     */
+    @Nullable
+    public T getIfPresent(int index) {
+        checkArgument(index >= 0);
+        int page = index / pageSize;
+        int offset = index % pageSize;
+        prefetchStrategy.onAccess(index, prefetchTarget);
+        synchronized (pages) {
+            PageTable.Entry<T> entry = pages.touch(page);
+            recordAccess(entry);
+            if (entry == null) {
+                return null;
+            }
+            entry.prefetched = false;
+            if (!entry.isResolved()) {
+                return null;
+            }
+            revalidateIfStale(entry);
+            return offset < entry.items.size() ? entry.items.get(offset) : null;
+        }
+    }
+
+    /**
+     * Like `getIfPresent(int)`, but starts loading the page if it isn't cached, as `get(int)`
+     * would, without anything to subscribe to.  For callers that wait for many items at once and
+     * hear about pages through `onPageResolved`.
+     */
+    @Nullable
+    public T getOrLoad(int index) {
+        checkArgument(index >= 0);
+        int page = index / pageSize;
+        int offset = index % pageSize;
+        prefetchStrategy.onAccess(index, prefetchTarget);
+        synchronized (pages) {
+            PageTable.Entry<T> entry = load(page, false);
+            if (!entry.isResolved()) {
+                return null;
+            }
+            revalidateIfStale(entry);
+            return offset < entry.items.size() ? entry.items.get(offset) : null;
+        }
+    }
+
     public Observable<List<T>> getPage(int page) {
         checkArgument(page >= 0);
-        return pages.getUnchecked(page).defaultIfEmpty(Collections.emptyList());
+        synchronized (pages) {
+            PageTable.Entry<T> entry = load(page, false);
+            if (entry.isResolved()) {
+                revalidateIfStale(entry);
+                // the page is out of our hands now; copy before writing to it again
+                entry.owned = false;
+                return Observable.just(entry.items);
+            }
+            return entry.observable.defaultIfEmpty(Collections.emptyList());
+        }
     }
 
     /**
-     * Replaces an item at `index` with `value`.  Does nothing if item/page isn't cached.
+     * Gets the items at positions `from` (inclusive) to `to` (exclusive) as one list, cut short at
+     * the end of the list.  Pages it needs are loaded in parallel; if they've all resolved, it
+     * emits right away.  The range may span at most `getMaxPagesCached()` pages.  Unlike `get(int)`
+     * it doesn't trigger prefetching, so bulk reads don't skew the `PrefetchStrategy`.
      */
-    public void replace(int index, T value) {
-        int page = index / pageSize;
-        Observable<List<T>> pageObs = pages.getIfPresent(page);
-        if (pageObs == null) {
-            return;
-        }
-        pageObs.onErrorResumeNext(Observable.empty()).subscribe((items) -> {
-            List<T> newItems = Lists.newArrayList(items);
-            newItems.set(index % pageSize, value);
-            pages.put(page, Observable.just(newItems).cache());
+    @SuppressWarnings("unchecked")
+    public Observable<List<T>> getRange(int from, int to) {
+        checkArgument(from >= 0 && from <= to);
+        if (from == to) {
+            return Observable.just(Collections.emptyList());
+        }
+        int firstPage = from / pageSize;
+        int lastPage = (to - 1) / pageSize;
+        checkArgument(lastPage - firstPage < maxPagesCached,
+                "range spans more than %s pages", maxPagesCached);
+        // resolved pages are read now, in case they're evicted before the rest arrive
+        List<List<T>> pageItems = new ArrayList<>(lastPage - firstPage + 1);
+        List<Observable<List<T>>> pending = Collections.emptyList();
+        synchronized (pages) {
+            for (int page = firstPage; page <= lastPage; page++) {
+                PageTable.Entry<T> entry = load(page, false);
+                if (entry.isResolved()) {
+                    revalidateIfStale(entry);
+                    // read-only from here, as for `getPage`
+                    entry.owned = false;
+                    pageItems.add(entry.items);
+                } else {
+                    if (pending.isEmpty()) {
+                        pending = new ArrayList<>();
+                    }
+                    pageItems.add(null);
+                    pending.add(entry.observable.take(1)
+                            .defaultIfEmpty(Collections.emptyList()));
+                }
+            }
+        }
+        if (pending.isEmpty()) {
+            return Observable.just(slice(pageItems, firstPage, from, to));
+        }
+        return Observable.zip(pending, loaded -> {
+            for (int i = 0, j = 0; i < pageItems.size(); i++) {
+                if (pageItems.get(i) == null) {
+                    pageItems.set(i, (List<T>) loaded[j++]);
+                }
+            }
+            return slice(pageItems, firstPage, from, to);
+        });
+    }
+
+    /**
+     * Synchronous counterpart to `getRange`, e.g. to snapshot what's on screen.  Returns the items
+     * at positions `from` to `to`, cut short at the end of the list, if every page they're on has
+     * resolved, or null otherwise.  Loads and prefetches nothing.
+     */
+    @Nullable
+    public List<T> getRangeIfPresent(int from, int to) {
+        checkArgument(from >= 0 && from <= to);
+        if (from == to) {
+            return Collections.emptyList();
+        }
+        int firstPage = from / pageSize;
+        int lastPage = (to - 1) / pageSize;
+        List<List<T>> pageItems = new ArrayList<>(lastPage - firstPage + 1);
+        synchronized (pages) {
+            for (int page = firstPage; page <= lastPage; page++) {
+                PageTable.Entry<T> entry = pages.get(page);
+                if (entry == null || !entry.isResolved()) {
+                    return null;
+                }
+                pageItems.add(entry.items);
+                if (entry.items.size() < pageSize) {
+                    break;
+                }
+            }
+            // copied under the lock, since resolved pages may still be written to
+            return slice(pageItems, firstPage, from, to);
+        }
+    }
+
+    // copies positions `from` to `to` out of consecutive pages starting at `firstPage`
+    private List<T> slice(List<List<T>> pageItems, int firstPage, int from, int to) {
+        List<T> range = new ArrayList<>(to - from);
+        for (int i = 0; i < pageItems.size(); i++) {
+            List<T> items = pageItems.get(i);
+            int start = (firstPage + i) * pageSize;
+            int fromOffset = Math.max(from - start, 0);
+            int toOffset = Math.min(to - start, items.size());
+            if (fromOffset < toOffset) {
+                range.addAll(items.subList(fromOffset, toOffset));
+            }
+            if (items.size() < pageSize) {
+                // the end of the list
+                break;
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Returns the entry for `page`, marking it most recently used, or starts loading it.
+     * Must hold the `pages` lock.
+     *
+     * @param prefetch Whether this is a prefetch rather than an actual read
+     */
+    private PageTable.Entry<T> load(int page, boolean prefetch) {
+        PageTable.Entry<T> entry = pages.touch(page);
+        if (!prefetch) {
+            recordAccess(entry);
+        }
+        if (entry != null) {
+            entry.prefetched &= prefetch;
+            if (!prefetch && !entry.isResolved() && entry.task != null) {
+                // wanted now, and more than whatever was asked for before
+                entry.task.setPriority(FetchScheduler.Priority.VISIBLE);
+            }
+            return entry;
+        }
+        entry = new PageTable.Entry<>(page);
+        entry.prefetched = prefetch;
+        if (pages.size() >= maxPagesCached) {
+            // make room ourselves, since the table would evict by recency alone
+            evict(nextToEvict(null, false));
+        }
+        pages.insert(entry);
+        PageTable.Entry<T> newEntry = entry;
+        PublishSubject<Void> dropped = PublishSubject.create();
+        ConnectableObservable<List<T>> obs = schedule(entry, fetchPage(page),
+                prefetch ? FetchScheduler.Priority.PREFETCH : FetchScheduler.Priority.VISIBLE)
+                // cancels the fetch and completes subscribers if the page is dropped first
+                .takeUntil(dropped)
+                // subscribers see queued writes too
+                .map(items -> resolve(newEntry, items))
+                .doOnCompleted(() -> complete(newEntry))
+                .doOnError(error -> fail(newEntry))
+                .replay(1);
+        entry.observable = obs;
+        // a synchronous `fetchPage` resolves the entry right here, which is fine since the lock
+        // is reentrant.  If the page was evicted meanwhile, drop the subscription on the spot.
+        obs.connect();
+        dropWith(entry, dropped);
+        return entry;
+    }
+
+    // makes dropping `entry` fire `dropped`, right away if it's gone already; must hold the
+    // `pages` lock
+    private static void dropWith(PageTable.Entry<?> entry, PublishSubject<Void> dropped) {
+        Subscription sub = Subscriptions.create(() -> dropped.onNext(null));
+        if (entry.removed) {
+            sub.unsubscribe();
+        } else {
+            entry.subscription = sub;
+        }
+    }
+
+    // returns `items` with any queued writes applied
+    private List<T> resolve(PageTable.Entry<T> entry, List<T> items) {
+        boolean refreshed;
+        List<Integer> changed = Collections.emptyList();
+        synchronized (pages) {
+            if (entry.removed) {
+                return items;
+            }
+            refreshed = entry.isResolved();
+            if (entry.writes != null) {
+                items = new ArrayList<>(items);
+                for (PageTable.Write<T> write : entry.writes) {
+                    if (write.offset < items.size()) {
+                        items.set(write.offset, write.value);
+                    }
+                }
+            }
+            if (refreshed) {
+                changed = changedOffsets(entry.items, items);
+            }
+            setItems(entry, items);
+            // handed to `onPageResolved` and subscribers
+            entry.owned = false;
+            entry.state = PageTable.State.RESOLVED;
+            if (clock != null) {
+                entry.resolvedAt = clock.now();
+            }
+            shrinkTo(maxWeight, entry);
+        }
+        onPageResolved(entry.page, items, refreshed);
+        if (!changed.isEmpty()) {
+            onPageRefreshed(entry.page, changed);
+        }
+        return items;
+    }
+
+    private static <T> List<Integer> changedOffsets(List<T> oldItems, List<T> newItems) {
+        List<Integer> changed = Collections.emptyList();
+        for (int i = 0, n = Math.max(oldItems.size(), newItems.size()); i < n; i++) {
+            if (i >= oldItems.size() || i >= newItems.size() ||
+                    !Objects.equal(oldItems.get(i), newItems.get(i))) {
+                if (changed.isEmpty()) {
+                    changed = new ArrayList<>();
+                }
+                changed.add(i);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Refetches every resolved page that isn't already being fetched, keeping the cached items
+     * in the meantime.  Completes once they're all done; errors, delayed until then, leave the
+     * page as it was.
+     */
+    public Observable<Void> revalidateAll() {
+        List<Observable<List<T>>> refetches = new ArrayList<>();
+        synchronized (pages) {
+            for (PageTable.Entry<T> entry : pages.entries()) {
+                if (entry.isResolved() && !entry.fetching) {
+                    refetches.add(revalidate(entry));
+                }
+            }
+        }
+        return Observable.mergeDelayError(Observable.from(refetches))
+                .ignoreElements()
+                .cast(Void.class);
+    }
+
+    // must hold the `pages` lock
+    private void revalidateIfStale(PageTable.Entry<T> entry) {
+        if (ttlMillis > 0 && !entry.fetching && clock.now() - entry.resolvedAt >= ttlMillis) {
+            revalidate(entry);
+        }
+    }
+
+    // must hold the `pages` lock
+    private Observable<List<T>> revalidate(PageTable.Entry<T> entry) {
+        entry.fetching = true;
+        AtomicBoolean emitted = new AtomicBoolean();
+        PublishSubject<Void> dropped = PublishSubject.create();
+        ConnectableObservable<List<T>> obs = schedule(entry, refetchPage(entry.page),
+                FetchScheduler.Priority.BACKGROUND)
+                // as for `load`, so `revalidateAll()` still completes if the page is dropped
+                .takeUntil(dropped)
+                .map(items -> {
+                    emitted.set(true);
+                    return resolve(entry, items);
+                })
+                .doOnCompleted(() -> {
+                    if (!emitted.get()) {
+                        // past the end now
+                        resolve(entry, Collections.emptyList());
+                    }
+                    revalidated(entry);
+                })
+                .doOnError(error -> revalidated(entry))
+                .replay(1);
+        obs.connect();
+        dropWith(entry, dropped);
+        return obs;
+    }
+
+    private void revalidated(PageTable.Entry<T> entry) {
+        synchronized (pages) {
+            entry.fetching = false;
+            entry.writes = null;
+            entry.task = null;
+            if (clock != null) {
+                // after a failure too, so we don't retry on every access
+                entry.resolvedAt = clock.now();
+            }
+        }
+    }
+
+    // routes `fetch` through the `FetchScheduler`, if any; must hold the `pages` lock
+    private Observable<List<T>> schedule(PageTable.Entry<T> entry, Observable<List<T>> fetch,
+                                         FetchScheduler.Priority priority) {
+        if (stats != null) {
+            fetch = measure(fetch, stats);
+        }
+        if (fetchScheduler == null) {
+            return fetch;
+        }
+        entry.task = fetchScheduler.submit(fetch, priority);
+        return entry.task.observable;
+    }
+
+    // counts `fetch` as in flight while it runs, and records how long it took if it terminates
+    private static <R> Observable<R> measure(Observable<R> fetch, Stats stats) {
+        return Observable.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean done = new AtomicBoolean();
+            stats.loadsInFlight.increment();
+            return fetch
+                    .doOnTerminate(() -> {
+                        if (done.compareAndSet(false, true)) {
+                            stats.loadsInFlight.decrement();
+                            stats.loadMicros.record((System.nanoTime() - start) / 1000);
+                        }
+                    })
+                    .doOnUnsubscribe(() -> {
+                        if (done.compareAndSet(false, true)) {
+                            stats.loadsInFlight.decrement();
+                        }
+                    });
         });
     }
 
+    // must hold the `pages` lock
+    private void recordAccess(@Nullable PageTable.Entry<T> entry) {
+        if (stats != null) {
+            (entry != null && entry.isResolved() ? stats.hits : stats.misses).increment();
+        }
+    }
+
+    /**
+     * Records metrics named `name` followed by ".hits", ".misses", ".loadsInFlight",
+     * ".evictions", ".unreadPrefetches" and ".loadMicros" to `metrics` from now on.
+     */
+    public void setMetrics(Metrics metrics, String name) {
+        synchronized (pages) {
+            this.stats = new Stats(metrics, name);
+        }
+    }
+
+    /**
+     * Runs fetches started from now on through `scheduler`, or starts them right away if null.
+     */
+    public void setFetchScheduler(@Nullable FetchScheduler scheduler) {
+        synchronized (pages) {
+            this.fetchScheduler = scheduler;
+        }
+    }
+
+    /**
+     * Called after `page` resolves, on the thread `fetchPage(int)` emitted on.
+     *
+     * @param refreshed Whether the page had already resolved and `fetchPage(int)` emitted again
+     */
+    protected void onPageResolved(int page, List<T> items, boolean refreshed) {
+    }
+
+    /**
+     * Called after `onPageResolved` when a page that had already resolved resolves again with
+     * different items, e.g. when revalidated.
+     *
+     * @param offsets Offsets within the page whose item changed, including ones added or removed
+     *                at the end, in order
+     */
+    protected void onPageRefreshed(int page, List<Integer> offsets) {
+    }
+
+    /**
+     * Called whenever the items cached for `page` change as a whole: when it resolves, when it's
+     * shifted by `insert` or `remove`, and with `newItems` null when it's dropped.  Runs with the
+     * cache locked, so it must be quick and must not call back into the cache; it's for keeping
+     * indexes of the cached items.  The lists may be written to later, so don't keep them.
+     *
+     * @param oldItems Items cached before, or null if there were none
+     */
+    protected void onPageItemsChanged(int page, @Nullable List<T> oldItems,
+                                      @Nullable List<T> newItems) {
+    }
+
+    /**
+     * Like `onPageItemsChanged`, for a single item changed by `replace` or `replaceRange`.
+     */
+    protected void onPageItemChanged(int page, int offset, T oldItem, T newItem) {
+    }
+
+    /**
+     * Estimated weight of an item, e.g. in bytes, for `setMaxWeight`.  Defaults to 1 so the weight
+     * is the number of cached items.  Runs with the cache locked, so it must be quick.
+     */
+    protected long weigh(T item) {
+        return 1;
+    }
+
+    /**
+     * Bounds the weight of cached items, dropping least recently used pages right away if it's
+     * exceeded.  The page that last resolved is always kept, whatever its weight.
+     *
+     * @param maxWeight Maximum total `weigh(T)` of cached items; `Long.MAX_VALUE` for no bound
+     */
+    public void setMaxWeight(long maxWeight) {
+        checkArgument(maxWeight >= 0);
+        synchronized (pages) {
+            this.maxWeight = maxWeight;
+            shrinkTo(maxWeight, null);
+        }
+    }
+
+    public long getMaxWeight() {
+        synchronized (pages) {
+            return maxWeight;
+        }
+    }
+
+    /**
+     * @return Total `weigh(T)` of cached items
+     */
+    public long getWeight() {
+        synchronized (pages) {
+            return weight;
+        }
+    }
+
+    /**
+     * Drops pages, as they'd be evicted, until at most `fraction` of the max weight, or of the
+     * current weight if unbounded, is left.  Meant for memory pressure: the max weight stays as
+     * it is, so the cache fills up again as pages are read.  Pages still loading are kept.
+     *
+     * @param fraction 0 to drop every resolved page, up to 1
+     * @return the number of pages dropped
+     */
+    public int trim(float fraction) {
+        checkArgument(fraction >= 0 && fraction <= 1);
+        synchronized (pages) {
+            long budget = maxWeight == Long.MAX_VALUE ? weight : maxWeight;
+            return shrinkTo((long) (budget * (double) fraction), null);
+        }
+    }
+
+    /**
+     * Drops pages with a weight, other than `keep`, as they'd be evicted until the weight is at
+     * most `target`.  Must hold the `pages` lock.
+     *
+     * @return the number of pages dropped
+     */
+    private int shrinkTo(long target, @Nullable PageTable.Entry<T> keep) {
+        int count = 0;
+        while (weight > target) {
+            PageTable.Entry<T> entry = nextToEvict(keep, true);
+            if (entry == null) {
+                break;
+            }
+            evict(entry);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * The page to evict next: the one farthest from the viewport, least recently used
+     * among equally far ones, or just the least recently used without a viewport.  Pages still
+     * loading, e.g. earlier pages of the same `getRange`, only go once nothing else is left, least
+     * recently used first.  Must hold the `pages` lock.
+     *
+     * @param keep A page not to evict
+     * @param weighted Whether to only consider pages with a weight, which loading pages don't have
+     */
+    @Nullable
+    private PageTable.Entry<T> nextToEvict(@Nullable PageTable.Entry<T> keep, boolean weighted) {
+        PageTable.Entry<T> farthest = null;
+        int farthestDistance = -1;
+        PageTable.Entry<T> oldestLoading = null;
+        for (PageTable.Entry<T> entry = pages.oldest(); entry != null; entry = entry.newer) {
+            if (entry == keep || weighted && entry.weight == 0) {
+                continue;
+            }
+            if (entry.state == PageTable.State.LOADING) {
+                if (oldestLoading == null) {
+                    oldestLoading = entry;
+                }
+                continue;
+            }
+            if (viewportFirstPage == -1) {
+                return entry;
+            }
+            int distance = distanceFromViewport(entry.page);
+            if (distance > farthestDistance) {
+                farthest = entry;
+                farthestDistance = distance;
+            }
+        }
+        return farthest != null ? farthest : oldestLoading;
+    }
+
+    // must hold the `pages` lock
+    private int distanceFromViewport(int page) {
+        if (page < viewportFirstPage) {
+            return viewportFirstPage - page;
+        }
+        return page > viewportLastPage ? page - viewportLastPage : 0;
+    }
+
+    // must hold the `pages` lock
+    private void evict(PageTable.Entry<T> entry) {
+        pages.remove(entry);
+        if (stats != null) {
+            stats.evictions.increment();
+        }
+        dropped(entry);
+        entry.subscription.unsubscribe();
+    }
+
+    /**
+     * Tells the cache that positions `from` (inclusive) to `to` (exclusive) are on screen, e.g.
+     * whenever the list scrolls.  Cheap unless the pages on screen change.
+     *
+     * From then on, pages are evicted farthest from the viewport first.  With a `FetchScheduler`,
+     * queued loads of pages on screen go first, and those the viewport left behind, e.g. after a
+     * jump, wait behind them along with prefetches.
+     */
+    public void setViewport(int from, int to) {
+        checkArgument(from >= 0 && from <= to);
+        int firstPage = from / pageSize;
+        int lastPage = Math.max(from, to - 1) / pageSize;
+        synchronized (pages) {
+            if (firstPage == viewportFirstPage && lastPage == viewportLastPage) {
+                return;
+            }
+            viewportFirstPage = firstPage;
+            viewportLastPage = lastPage;
+            if (fetchScheduler == null) {
+                return;
+            }
+            for (PageTable.Entry<T> entry = pages.oldest(); entry != null; entry = entry.newer) {
+                FetchScheduler.Task<List<T>> task = entry.task;
+                // revalidations keep their low priority
+                if (task == null || entry.isResolved() || !task.isQueued()) {
+                    continue;
+                }
+                if (distanceFromViewport(entry.page) == 0) {
+                    task.setPriority(FetchScheduler.Priority.VISIBLE);
+                } else if (task.getPriority() == FetchScheduler.Priority.VISIBLE) {
+                    task.setPriority(FetchScheduler.Priority.PREFETCH);
+                }
+            }
+        }
+    }
+
+    // must hold the `pages` lock
+    private void setItems(PageTable.Entry<T> entry, @Nullable List<T> items) {
+        List<T> oldItems = entry.items;
+        entry.items = items;
+        long newWeight = 0;
+        if (items != null) {
+            for (int i = 0; i < items.size(); i++) {
+                newWeight += weigh(items.get(i));
+            }
+        }
+        weight += newWeight - entry.weight;
+        entry.weight = newWeight;
+        version++;
+        onPageItemsChanged(entry.page, oldItems, items);
+    }
+
+    // for entries that just left the table; must hold the `pages` lock
+    private void dropped(PageTable.Entry<T> entry) {
+        if (stats != null && entry.prefetched) {
+            stats.unreadPrefetches.increment();
+        }
+        weight -= entry.weight;
+        entry.weight = 0;
+        if (entry.items != null) {
+            version++;
+            onPageItemsChanged(entry.page, entry.items, null);
+        }
+    }
+
+    // a page that completes without emitting is past the end
+    private void complete(PageTable.Entry<T> entry) {
+        synchronized (pages) {
+            entry.fetching = false;
+            entry.writes = null;
+            entry.task = null;
+            if (!entry.removed && entry.state == PageTable.State.LOADING) {
+                setItems(entry, Collections.emptyList());
+                entry.state = PageTable.State.RESOLVED;
+            }
+        }
+    }
+
+    private void fail(PageTable.Entry<T> entry) {
+        synchronized (pages) {
+            entry.fetching = false;
+            entry.writes = null;
+            entry.task = null;
+            if (!entry.removed) {
+                if (entry.items != null) {
+                    // no longer readable
+                    setItems(entry, null);
+                }
+                entry.state = PageTable.State.FAILED;
+            }
+        }
+    }
+
+    /**
+     * Replaces the item at `index` with `value`.  Applies right away if the page has resolved.  If
+     * its fetch may still emit, e.g. the page is loading, the write is also queued and applied to
+     * whatever the fetch emits next.
+     *
+     * @return whether the write was applied or queued; false if the page isn't cached or has no
+     *         item at `index`
+     */
+    public boolean replace(int index, T value) {
+        checkArgument(index >= 0);
+        synchronized (pages) {
+            return write(pages.get(index / pageSize), index % pageSize, value);
+        }
+    }
+
+    /**
+     * Replaces consecutive items starting at `index` with `values`, across pages.  Each item is
+     * handled like `replace(int, T)`, but a page is copied at most once for the whole batch.
+     *
+     * @return the number of writes applied or queued
+     */
+    public int replaceRange(int index, List<T> values) {
+        checkArgument(index >= 0);
+        int written = 0;
+        synchronized (pages) {
+            PageTable.Entry<T> entry = null;
+            for (int i = 0; i < values.size(); i++) {
+                int position = index + i;
+                if (entry == null || entry.page != position / pageSize) {
+                    entry = pages.get(position / pageSize);
+                }
+                if (write(entry, position % pageSize, values.get(i))) {
+                    written++;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Total number of changes to cached items so far.  Anything read while this stays the same is
+     * still current.
+     */
+    public long getVersion() {
+        synchronized (pages) {
+            return version;
+        }
+    }
+
+    // must hold the `pages` lock
+    private boolean write(@Nullable PageTable.Entry<T> entry, int offset, T value) {
+        if (entry == null) {
+            return false;
+        }
+        boolean queued = false;
+        if (entry.fetching) {
+            if (entry.writes == null) {
+                entry.writes = new ArrayList<>();
+            }
+            entry.writes.add(new PageTable.Write<>(offset, value));
+            queued = true;
+        }
+        if (!entry.isResolved() || offset >= entry.items.size()) {
+            return queued;
+        }
+        if (!entry.owned) {
+            entry.items = new ArrayList<>(entry.items);
+            entry.owned = true;
+        }
+        T old = entry.items.set(offset, value);
+        long delta = weigh(value) - weigh(old);
+        entry.weight += delta;
+        weight += delta;
+        version++;
+        onPageItemChanged(entry.page, offset, old, value);
+        return true;
+    }
+
+    /**
+     * Inserts `item` at `index`, shifting later items up by one within and across cached pages.
+     * Pages that can't be patched, because the page they'd take an item from isn't resolved or
+     * they are still loading and may or may not include the insert, are dropped.
+     *
+     * @return the pages dropped
+     */
+    public List<Integer> insert(int index, T item) {
+        checkArgument(index >= 0);
+        synchronized (pages) {
+            int page = index / pageSize;
+            int offset = index % pageSize;
+            T carry = item;
+            boolean carrying = true;
+            int p = page;
+            while (carrying) {
+                PageTable.Entry<T> entry = pages.get(p);
+                if (entry == null || !entry.isResolved() || offset > entry.items.size()) {
+                    break;
+                }
+                List<T> items = new ArrayList<>(entry.items.size() + 1);
+                items.addAll(entry.items);
+                items.add(offset, carry);
+                // a full page pushes its last item to the front of the next one
+                carrying = items.size() > pageSize;
+                if (carrying) {
+                    carry = items.remove(pageSize);
+                }
+                patch(entry, items);
+                p++;
+                offset = 0;
+            }
+            return dropFrom(page, carrying ? p : Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Removes the item at `index`, shifting later items down by one within and across cached
+     * pages.  Pages that can't be patched are dropped, see `insert(int, T)`.
+     *
+     * @return the pages dropped
+     */
+    public List<Integer> remove(int index) {
+        checkArgument(index >= 0);
+        synchronized (pages) {
+            int page = index / pageSize;
+            PageTable.Entry<T> entry = pages.get(page);
+            if (entry == null || !entry.isResolved() || index % pageSize >= entry.items.size()) {
+                return dropFrom(page, page);
+            }
+            List<T> items = new ArrayList<>(entry.items);
+            items.remove(index % pageSize);
+            // a full page takes the first item of the next one to stay full
+            boolean pulling = entry.items.size() == pageSize;
+            int p = page;
+            while (pulling) {
+                PageTable.Entry<T> next = pages.get(p + 1);
+                if (next == null || !next.isResolved()) {
+                    break;
+                }
+                pulling = false;
+                if (!next.items.isEmpty()) {
+                    items.add(next.items.get(0));
+                    patch(entry, items);
+                    entry = next;
+                    items = new ArrayList<>(next.items.subList(1, next.items.size()));
+                    pulling = next.items.size() == pageSize;
+                }
+                p++;
+            }
+            patch(entry, items);
+            return dropFrom(page, pulling ? p : Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Drops cached pages matching `which`, e.g. ones known to be out of date.
+     *
+     * @return the pages dropped
+     */
+    public List<Integer> invalidatePages(Predicate<Integer> which) {
+        List<PageTable.Entry<T>> removed = new ArrayList<>();
+        synchronized (pages) {
+            for (PageTable.Entry<T> entry : pages.entries()) {
+                if (which.apply(entry.page)) {
+                    pages.remove(entry);
+                    dropped(entry);
+                    removed.add(entry);
+                }
+            }
+        }
+        return unsubscribe(removed);
+    }
+
+    // `items` must be a new list
+    private void patch(PageTable.Entry<T> entry, List<T> items) {
+        setItems(entry, items);
+        entry.owned = true;
+        // their offsets are off now; whatever the fetch emits next is newer anyway
+        entry.writes = null;
+    }
+
+    /**
+     * After shifting items from `from` onwards, drops the pages whose contents are now unknown:
+     * pages still loading, and every page from `stale` onwards.  Must hold the `pages` lock.
+     */
+    private List<Integer> dropFrom(int from, int stale) {
+        List<PageTable.Entry<T>> removed = Collections.emptyList();
+        for (PageTable.Entry<T> entry : pages.entries()) {
+            if (entry.page >= stale || entry.page >= from && !entry.isResolved()) {
+                if (removed.isEmpty()) {
+                    removed = new ArrayList<>();
+                }
+                pages.remove(entry);
+                dropped(entry);
+                removed.add(entry);
+            }
+        }
+        return unsubscribe(removed);
+    }
+
+    private static <T> List<Integer> unsubscribe(List<PageTable.Entry<T>> removed) {
+        if (removed.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Integer> dropped = new ArrayList<>(removed.size());
+        for (PageTable.Entry<T> entry : removed) {
+            entry.subscription.unsubscribe();
+            dropped.add(entry.page);
+        }
+        return dropped;
+    }
+
+    /**
+     * Whether `page` is cached and has resolved.
+     */
+    public boolean isPageResolved(int page) {
+        synchronized (pages) {
+            PageTable.Entry<T> entry = pages.get(page);
+            return entry != null && entry.isResolved();
+        }
+    }
+
     public int getPageSize() {
         return pageSize;
     }
 
+    public int getMaxPagesCached() {
+        return maxPagesCached;
+    }
+
     public void invalidateAll() {
-        pages.invalidateAll();
+        List<PageTable.Entry<T>> removed;
+        synchronized (pages) {
+            removed = pages.clear();
+            for (PageTable.Entry<T> entry : removed) {
+                dropped(entry);
+            }
+        }
+        for (PageTable.Entry<T> entry : removed) {
+            entry.subscription.unsubscribe();
+        }
+    }
+
+    private class PrefetchTarget implements PrefetchStrategy.Pages {
+        @Override
+        public int pageSize() {
+            return pageSize;
+        }
+
+        @Override
+        public int maxPagesCached() {
+            return maxPagesCached;
+        }
+
+        @Override
+        public void prefetch(int page) {
+            synchronized (pages) {
+                load(page, true);
+            }
+        }
+
+        @Override
+        public void cancel(int page) {
+            synchronized (pages) {
+                PageTable.Entry<T> entry = pages.get(page);
+                if (entry == null || entry.state != PageTable.State.LOADING) {
+                    return;
+                }
+                // nothing is lost dropping a page that hasn't started loading, even if it was read
+                if (!entry.prefetched && (entry.task == null || !entry.task.isQueued())) {
+                    return;
+                }
+                pages.remove(entry);
+                dropped(entry);
+                entry.subscription.unsubscribe();
+            }
+        }
     }
 }
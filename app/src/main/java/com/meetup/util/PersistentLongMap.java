@@ -0,0 +1,197 @@
+package com.meetup.util;
+
+import javax.annotation.Nullable;
+
+/**
+ * Immutable map from `long` keys to values.  `put` and `remove` return a new map that shares
+ * all but O(log n) of its structure with this one, so old versions stay valid and can be read
+ * from any thread without locking.
+ *
+ * A hash array mapped trie: each level consumes 5 bits of a mixed key.  The mix is a bijection
+ * on longs, so distinct keys always diverge by the last level and there are no collisions.
+ */
+public final class PersistentLongMap<V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentLongMap<?> EMPTY =
+            new PersistentLongMap<>(new Node(0, new Object[0]), 0);
+
+    private static final class Leaf {
+        final long key;
+        final Object value;
+
+        Leaf(long key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // slots hold a `Leaf` or a `Node` for each set bit of `bitmap`, in bit order
+    private static final class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        Node with(int i, Object slot) {
+            Object[] copy = slots.clone();
+            copy[i] = slot;
+            return new Node(bitmap, copy);
+        }
+
+        Node inserted(int bit, int i, Object slot) {
+            Object[] copy = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, copy, 0, i);
+            copy[i] = slot;
+            System.arraycopy(slots, i, copy, i + 1, slots.length - i);
+            return new Node(bitmap | bit, copy);
+        }
+
+        Node removed(int bit, int i) {
+            Object[] copy = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, copy, 0, i);
+            System.arraycopy(slots, i + 1, copy, i, copy.length - i);
+            return new Node(bitmap & ~bit, copy);
+        }
+    }
+
+    private final Node root;
+    private final int size;
+
+    private PersistentLongMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentLongMap<V> empty() {
+        return (PersistentLongMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long hash = hash(key);
+        Object slot = root;
+        for (int shift = 0; slot instanceof Node; shift += BITS) {
+            Node node = (Node) slot;
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            slot = node.slots[index(node.bitmap, bit)];
+        }
+        Leaf leaf = (Leaf) slot;
+        return leaf.key == key ? (V) leaf.value : null;
+    }
+
+    public PersistentLongMap<V> put(long key, V value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = put(root, key, hash(key), 0, value, added);
+        return newRoot == root ? this : new PersistentLongMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public PersistentLongMap<V> remove(long key) {
+        Object newRoot = remove(root, key, hash(key), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        if (!(newRoot instanceof Node)) {
+            // the root only collapses when it's down to one entry or none
+            newRoot = newRoot == null ?
+                    new Node(0, new Object[0]) :
+                    new Node(bit(hash(((Leaf) newRoot).key), 0), new Object[] {newRoot});
+        }
+        return new PersistentLongMap<>((Node) newRoot, size - 1);
+    }
+
+    private static Node put(Node node, long key, long hash, int shift, Object value,
+                            boolean[] added) {
+        int bit = bit(hash, shift);
+        int i = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            return node.inserted(bit, i, new Leaf(key, value));
+        }
+        Object slot = node.slots[i];
+        if (slot instanceof Node) {
+            Node child = put((Node) slot, key, hash, shift + BITS, value, added);
+            return child == slot ? node : node.with(i, child);
+        }
+        Leaf leaf = (Leaf) slot;
+        if (leaf.key == key) {
+            return leaf.value == value ? node : node.with(i, new Leaf(key, value));
+        }
+        added[0] = true;
+        return node.with(i, pair(leaf, hash(leaf.key), new Leaf(key, value), hash,
+                shift + BITS));
+    }
+
+    // returns `node` if unchanged, or its replacement: a `Node`, a lone `Leaf`, or null if empty
+    @Nullable
+    private static Object remove(Node node, long key, long hash, int shift) {
+        int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int i = index(node.bitmap, bit);
+        Object slot = node.slots[i];
+        Object replacement;
+        if (slot instanceof Node) {
+            replacement = remove((Node) slot, key, hash, shift + BITS);
+            if (replacement == slot) {
+                return node;
+            }
+        } else if (((Leaf) slot).key == key) {
+            replacement = null;
+        } else {
+            return node;
+        }
+        if (replacement != null) {
+            if (replacement instanceof Leaf && node.slots.length == 1) {
+                // pull a lone entry up so lookups stay short
+                return replacement;
+            }
+            return node.with(i, replacement);
+        }
+        if (node.slots.length == 1) {
+            return null;
+        }
+        if (node.slots.length == 2 && node.slots[1 - i] instanceof Leaf) {
+            return node.slots[1 - i];
+        }
+        return node.removed(bit, i);
+    }
+
+    private static Node pair(Leaf a, long hashA, Leaf b, long hashB, int shift) {
+        int bitA = bit(hashA, shift);
+        int bitB = bit(hashB, shift);
+        if (bitA == bitB) {
+            return new Node(bitA, new Object[] {pair(a, hashA, b, hashB, shift + BITS)});
+        }
+        boolean aFirst = ((hashA >>> shift) & MASK) < ((hashB >>> shift) & MASK);
+        return new Node(bitA | bitB, aFirst ? new Object[] {a, b} : new Object[] {b, a});
+    }
+
+    private static int bit(long hash, int shift) {
+        return 1 << (int) ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    // bijective, so distinct keys have distinct hashes
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+}
@@ -0,0 +1,36 @@
+package com.meetup.util;
+
+/**
+ * Decides which pages `PaginationCache` loads ahead of time.  Called on every `get(int)`,
+ * `getIfPresent(int)` and `getOrLoad(int)` with the index being accessed, so implementations
+ * should do as little as possible when nothing changes.
+ */
+public interface PrefetchStrategy {
+    /**
+     * @param index Absolute position being accessed
+     * @param pages Handle for issuing prefetches and cancellations
+     */
+    void onAccess(int index, Pages pages);
+
+    /**
+     * View of a `PaginationCache` for strategies.
+     */
+    interface Pages {
+        int pageSize();
+
+        int maxPagesCached();
+
+        /**
+         * Starts loading `page` unless it's already cached or in flight.
+         */
+        void prefetch(int page);
+
+        /**
+         * Stops loading `page` if it hasn't resolved yet and was only ever prefetched, or is
+         * still waiting on the cache's `FetchScheduler` to start.
+         */
+        void cancel(int page);
+    }
+
+    PrefetchStrategy NONE = (index, pages) -> {};
+}
@@ -1,58 +1,426 @@
 package com.meetup.util;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
 import javax.inject.Singleton;
 
 import rx.Observable;
 import rx.Scheduler;
-import rx.schedulers.Timestamped;
-import rx.subjects.ReplaySubject;
-import rx.subjects.Subject;
+import rx.Subscriber;
+import rx.exceptions.MissingBackpressureException;
+import rx.functions.Func1;
+import rx.subjects.PublishSubject;
+
+import static com.google.common.base.Preconditions.*;
 
 /**
  * Rx-based event bus.  Events are cached for some amount of time for replaying.  An example use
  * case would be an Activity that displays a list of photos, caches it `onSaveInstanceState`, and
  * also listens for deletion events.  Data sync bugs can spawn if deletions occur while the
  * Activity is destroyed and the Activity is re-created with the now-invalid list of photos.
+ *
+ * The bus is partitioned by `Driver` class: each event type has its own time-ordered buffer, so
+ * a subscription only ever looks at events of its type and finds where to start replaying by
+ * binary search on post time.
+ *
+ * Each event type records "bus.<SimpleName>.posts", the number of events replayed per
+ * subscription as ".replayed", and for `Driver.batches` subscribers, how long the first event of
+ * each batch waited to be delivered as ".lagMillis".
  */
 @Singleton
 public class RxBus {
     public static final int TTL_SECONDS = 120;
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(TTL_SECONDS);
+
+    private static final Object TOMBSTONE = new Object();
 
     final Scheduler scheduler;
-    final Subject<Timestamped<Object>, Timestamped<Object>> subject;
+    final Metrics metrics;
+    private final ConcurrentHashMap<Class<?>, Partition<?>> partitions = new ConcurrentHashMap<>();
 
     public RxBus(Scheduler scheduler) {
+        this(scheduler, new Metrics());
+    }
+
+    public RxBus(Scheduler scheduler, Metrics metrics) {
         this.scheduler = scheduler;
-        this.subject = ReplaySubject.<Timestamped<Object>>createWithTime(TTL_SECONDS, TimeUnit.SECONDS, scheduler)
-                .toSerialized();
+        this.metrics = metrics;
     }
 
-    private void post(Object value) {
-        subject.onNext(new Timestamped<>(scheduler.now(), value));
+    /**
+     * How much of one event type is kept for replay.  Events always expire after `TTL_SECONDS`;
+     * a policy can also cap how many are kept, how many bytes they take up (as estimated by
+     * `weigher`), and keep only the latest event per key.  The oldest events go first when a cap
+     * is hit.  Events can also be persisted to an `EventJournal` so they're replayed after the
+     * process restarts.
+     */
+    public static final class ReplayPolicy<T> {
+        private static final ReplayPolicy<Object> UNBOUNDED =
+                new ReplayPolicy<>(Integer.MAX_VALUE, Long.MAX_VALUE, null, null, null);
+
+        final int maxEvents;
+        final long maxBytes;
+        @Nullable final Func1<? super T, Integer> weigher;
+        @Nullable final Func1<? super T, ?> key;
+        @Nullable final EventJournal<T> journal;
+
+        private ReplayPolicy(int maxEvents, long maxBytes,
+                             @Nullable Func1<? super T, Integer> weigher,
+                             @Nullable Func1<? super T, ?> key,
+                             @Nullable EventJournal<T> journal) {
+            this.maxEvents = maxEvents;
+            this.maxBytes = maxBytes;
+            this.weigher = weigher;
+            this.key = key;
+            this.journal = journal;
+        }
+
+        @SuppressWarnings("unchecked")
+        public static <T> ReplayPolicy<T> unbounded() {
+            return (ReplayPolicy<T>) UNBOUNDED;
+        }
+
+        public ReplayPolicy<T> maxEvents(int maxEvents) {
+            checkArgument(maxEvents >= 0);
+            return new ReplayPolicy<>(maxEvents, maxBytes, weigher, key, journal);
+        }
+
+        /**
+         * @param weigher Estimated size of an event in bytes
+         */
+        public ReplayPolicy<T> maxBytes(long maxBytes, Func1<? super T, Integer> weigher) {
+            checkArgument(maxBytes >= 0);
+            return new ReplayPolicy<>(maxEvents, maxBytes, checkNotNull(weigher), key, journal);
+        }
+
+        /**
+         * Replays only the latest event for each key.  Good for events that carry the new state
+         * of something, where subscribers don't care how it got there.
+         */
+        public ReplayPolicy<T> coalesceBy(Func1<? super T, ?> key) {
+            return new ReplayPolicy<>(maxEvents, maxBytes, weigher, checkNotNull(key), journal);
+        }
+
+        /**
+         * Writes events to `journal` as they're posted, and starts out with the ones in it that
+         * haven't expired.  The caps and coalescing above apply to what's replayed, not to what's
+         * in the journal.
+         */
+        public ReplayPolicy<T> persistTo(EventJournal<T> journal) {
+            return new ReplayPolicy<>(maxEvents, maxBytes, weigher, key, checkNotNull(journal));
+        }
     }
 
-    private Observable<Timestamped<Object>> observable(long savedElapsedRealtime) {
-        long since = savedElapsedRealtime >= 0 ? savedElapsedRealtime : scheduler.now();
-        return subject.filter(t -> t.getTimestampMillis() >= since);
+    @SuppressWarnings("unchecked")
+    <T> Partition<T> partition(Class<T> klass, @Nullable ReplayPolicy<T> policy) {
+        Partition<T> partition = (Partition<T>) partitions.get(klass);
+        if (partition == null) {
+            Partition<T> created = new Partition<>(klass.getSimpleName(),
+                    policy != null ? policy : ReplayPolicy.<T>unbounded());
+            partition = (Partition<T>) partitions.putIfAbsent(klass, created);
+            if (partition == null) {
+                created.loadJournal();
+                return created;
+            }
+        }
+        checkState(policy == null || policy == partition.policy,
+                "%s already has a different replay policy", klass.getName());
+        return partition;
+    }
+
+    /**
+     * Events of one type: a ring buffer of the ones still kept for replay, ordered by post time,
+     * plus a subject for live subscribers.  Guarded by itself; events are delivered under the
+     * lock so replay and live delivery can't interleave or miss each other.
+     *
+     * Coalesced events leave a tombstone in their slot, so the buffer stays sorted by time; the
+     * buffer is compacted once tombstones outnumber events.
+     *
+     * With a journal, the buffer starts out with what's in it, read on `scheduler` rather than
+     * on whichever thread first asks for the driver.  Subscribers wait for that, and events
+     * posted meanwhile are held back until the journal's older ones are in.
+     */
+    final class Partition<T> {
+        private final ReplayPolicy<T> policy;
+        private final PublishSubject<T> live = PublishSubject.create();
+        private long[] times = new long[16];
+        private Object[] values = new Object[16];
+        private int[] weights = new int[16];
+        private int head;
+        // slots in use, including tombstones
+        private int size;
+        private int count;
+        private long bytes;
+        // key -> slot of its latest event, as an offset from `first`
+        @Nullable private final Map<Object, Long> latest;
+        // offset of the slot at `head`
+        private long first;
+        // subscribers replaying right now, which rely on offsets not moving
+        private int replaying;
+        private final Metrics.Counter posts;
+        private final Metrics.Histogram replayed;
+        final Metrics.Histogram lagMillis;
+        // completes once the journal's events are in the buffer; null without a journal
+        @Nullable private final Observable<T> journalLoaded;
+        // records at or after this were posted by this process, which holds them already
+        private final long createdAt;
+        // posts waiting for the journal to load
+        @Nullable private List<EventJournal.Record<T>> held;
+
+        Partition(String name, ReplayPolicy<T> policy) {
+            this.policy = policy;
+            this.posts = metrics.counter("bus." + name + ".posts");
+            this.replayed = metrics.histogram("bus." + name + ".replayed");
+            this.lagMillis = metrics.histogram("bus." + name + ".lagMillis");
+            this.latest = policy.key != null ? new HashMap<>() : null;
+            this.createdAt = scheduler.now();
+            if (policy.journal != null) {
+                held = new ArrayList<>();
+                journalLoaded = Observable.create((Subscriber<? super T> subscriber) -> {
+                    try {
+                        addJournal(policy.journal.read(createdAt - TTL_MILLIS));
+                    } finally {
+                        subscriber.onCompleted();
+                    }
+                }).subscribeOn(scheduler).cache();
+            } else {
+                journalLoaded = null;
+            }
+        }
+
+        // starts reading the journal, if any
+        void loadJournal() {
+            if (journalLoaded != null) {
+                journalLoaded.subscribe();
+            }
+        }
+
+        private void addJournal(List<EventJournal.Record<T>> records) {
+            synchronized (this) {
+                for (EventJournal.Record<T> record : records) {
+                    if (record.time < createdAt) {
+                        add(record.time, record.value);
+                    }
+                }
+                for (EventJournal.Record<T> record : held) {
+                    add(record.time, record.value);
+                }
+                held = null;
+                expire(scheduler.now());
+            }
+        }
+
+        void post(T value) {
+            synchronized (this) {
+                // read under the lock so the buffer stays in time order
+                long now = scheduler.now();
+                if (policy.journal != null) {
+                    policy.journal.append(now, value);
+                }
+                posts.increment();
+                if (held != null) {
+                    // nobody is subscribed before the journal has loaded
+                    held.add(new EventJournal.Record<>(now, value));
+                    return;
+                }
+                expire(now);
+                add(now, value);
+                live.onNext(value);
+            }
+        }
+
+        // buffers `value` for replay; must hold the lock
+        private void add(long now, T value) {
+            if (size == times.length) {
+                grow();
+            }
+            int tail = slot(size);
+            int weight = policy.weigher != null ? policy.weigher.call(value) : 0;
+            times[tail] = now;
+            values[tail] = value;
+            weights[tail] = weight;
+            size++;
+            count++;
+            bytes += weight;
+            if (latest != null) {
+                Long previous = latest.put(policy.key.call(value), first + size - 1);
+                if (previous != null) {
+                    bury((int) (previous - first));
+                }
+            }
+            while (count > policy.maxEvents || bytes > policy.maxBytes) {
+                dropFirst();
+            }
+        }
+
+        Observable<T> observable(long savedElapsedRealtime) {
+            long since = savedElapsedRealtime >= 0 ? savedElapsedRealtime : scheduler.now();
+            Observable<T> replayThenLive = Observable.create((Subscriber<? super T> subscriber) -> {
+                synchronized (this) {
+                    expire(scheduler.now());
+                    replay(since, subscriber);
+                    if (!subscriber.isUnsubscribed()) {
+                        subscriber.add(live.unsafeSubscribe(subscriber));
+                    }
+                }
+            });
+            return journalLoaded != null ? journalLoaded.concatWith(replayThenLive) : replayThenLive;
+        }
+
+        // must hold the lock
+        private void replay(long since, Subscriber<? super T> subscriber) {
+            replaying++;
+            int replayedCount = 0;
+            try {
+                // `size` is re-read each time in case the subscriber posts while replaying; that
+                // can also drop slots, so go by offset rather than index
+                for (long i = first + firstAtOrAfter(since);
+                     i < first + size && !subscriber.isUnsubscribed(); i++) {
+                    if (i < first) {
+                        i = first;
+                    }
+                    Object value = values[slot((int) (i - first))];
+                    if (value != TOMBSTONE) {
+                        subscriber.onNext(cast(value));
+                        replayedCount++;
+                    }
+                }
+            } finally {
+                replaying--;
+                replayed.record(replayedCount);
+            }
+        }
+
+        // index of the first buffered event posted at or after `time`
+        private int firstAtOrAfter(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[slot(mid)] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void expire(long now) {
+            for (int expired = firstAtOrAfter(now - TTL_MILLIS); expired > 0; expired--) {
+                dropFirst();
+            }
+        }
+
+        private void dropFirst() {
+            int slot = head;
+            Object value = values[slot];
+            if (value != TOMBSTONE) {
+                count--;
+                bytes -= weights[slot];
+                if (latest != null) {
+                    Object key = policy.key.call(cast(value));
+                    Long at = latest.get(key);
+                    if (at != null && at == first) {
+                        latest.remove(key);
+                    }
+                }
+            }
+            values[slot] = null;
+            head = slot(1);
+            size--;
+            first++;
+        }
+
+        // replaces the event at index `i` with a tombstone
+        private void bury(int i) {
+            int slot = slot(i);
+            values[slot] = TOMBSTONE;
+            count--;
+            bytes -= weights[slot];
+            if (replaying == 0 && size > 16 && count < size / 2) {
+                compact();
+            }
+        }
+
+        // moves events down over tombstones, in place
+        private void compact() {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int from = slot(i);
+                if (values[from] != TOMBSTONE) {
+                    int to = slot(n);
+                    times[to] = times[from];
+                    values[to] = values[from];
+                    weights[to] = weights[from];
+                    latest.put(policy.key.call(cast(values[to])), first + n);
+                    n++;
+                }
+            }
+            for (int i = n; i < size; i++) {
+                values[slot(i)] = null;
+            }
+            size = n;
+        }
+
+        private void grow() {
+            long[] newTimes = new long[times.length * 2];
+            Object[] newValues = new Object[values.length * 2];
+            int[] newWeights = new int[weights.length * 2];
+            for (int i = 0; i < size; i++) {
+                int slot = slot(i);
+                newTimes[i] = times[slot];
+                newValues[i] = values[slot];
+                newWeights[i] = weights[slot];
+            }
+            times = newTimes;
+            values = newValues;
+            weights = newWeights;
+            head = 0;
+        }
+
+        Scheduler scheduler() {
+            return scheduler;
+        }
+
+        private int slot(int i) {
+            return (head + i) & (times.length - 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        private T cast(Object value) {
+            return (T) value;
+        }
     }
 
     @Singleton
     public static class Driver<T> {
-        private final RxBus bus;
-        private final Class<T> klass;
+        private final Partition<T> partition;
 
         public Driver(RxBus bus, Class<T> klass) {
-            this.bus = bus;
-            this.klass = klass;
+            this.partition = bus.partition(klass, null);
+        }
+
+        /**
+         * @param policy How much of `klass` to keep for replay; every driver for `klass` must pass
+         *               the same policy or none
+         */
+        public Driver(RxBus bus, Class<T> klass, ReplayPolicy<T> policy) {
+            this.partition = bus.partition(klass, checkNotNull(policy));
         }
 
         /**
-         * Posts an event of type `T`.
+         * Posts an event of type `T`.  Only drivers for the same class receive it.
          */
         public void post(T value) {
-            bus.post(value);
+            partition.post(value);
         }
 
         /**
@@ -62,11 +430,8 @@ public class RxBus {
          *
          * @param savedElapsedRealtime IMPORTANT: Must be obtained from `SystemClock.elapsedRealtime()`
          */
-        @SuppressWarnings("unchecked")
         public Observable<T> observable(long savedElapsedRealtime) {
-            return (Observable) bus.observable(savedElapsedRealtime)
-                    .filter(t -> klass.isInstance(t.getValue()))
-                    .map(Timestamped::getValue);
+            return partition.observable(savedElapsedRealtime);
         }
 
         /**
@@ -75,5 +440,219 @@ public class RxBus {
         public Observable<T> observable() {
             return observable(-1L);
         }
+
+        /**
+         * Like `observable(long)`, but delivers events in batches: at most one per `timespan`, or
+         * sooner once `maxSize` events are waiting.  Honors backpressure; while the subscriber
+         * isn't requesting, up to `maxSize` events wait and further ones are handled according to
+         * `overflow`.
+         *
+         * @param savedElapsedRealtime See `observable(long)`
+         */
+        public Observable<List<T>> batches(long savedElapsedRealtime, long timespan, TimeUnit unit,
+                                           int maxSize, Overflow overflow) {
+            checkArgument(maxSize > 0);
+            return Observable.create(new Batcher<>(observable(savedElapsedRealtime),
+                    unit.toMillis(timespan), maxSize, overflow, partition.scheduler(),
+                    partition.lagMillis));
+        }
+    }
+
+    /**
+     * What `Driver.batches` does with events that arrive while the subscriber is behind and a
+     * full batch is already waiting.
+     */
+    public enum Overflow {
+        // make room by dropping the oldest waiting event
+        DROP_OLDEST,
+        // drop the new event
+        DROP_LATEST,
+        // fail with `MissingBackpressureException`
+        ERROR
+    }
+
+    private static final class Batcher<T> implements Observable.OnSubscribe<List<T>> {
+        private final Observable<T> source;
+        private final long windowMillis;
+        private final int maxSize;
+        private final Overflow overflow;
+        private final Scheduler scheduler;
+        private final Metrics.Histogram lagMillis;
+
+        Batcher(Observable<T> source, long windowMillis, int maxSize, Overflow overflow,
+                Scheduler scheduler, Metrics.Histogram lagMillis) {
+            this.source = source;
+            this.windowMillis = windowMillis;
+            this.maxSize = maxSize;
+            this.overflow = overflow;
+            this.scheduler = scheduler;
+            this.lagMillis = lagMillis;
+        }
+
+        @Override
+        public void call(Subscriber<? super List<T>> child) {
+            Scheduler.Worker worker = scheduler.createWorker();
+            child.add(worker);
+            State state = new State(child, worker);
+            child.setProducer(state::requestBatches);
+            child.add(source.unsafeSubscribe(state));
+        }
+
+        /**
+         * Collects events from the source into `pending`.  A batch is cut from `pending` when it
+         * fills up or the window passes, but only once the subscriber has requested it, so at
+         * most `maxSize` events wait that nobody asked for.  Batches are only ever emitted from
+         * `worker`, so they're serialized without having to emit under the lock.
+         */
+        private final class State extends Subscriber<T> {
+            private final Subscriber<? super List<T>> child;
+            private final Scheduler.Worker worker;
+            // all guarded by this
+            private final ArrayDeque<T> pending = new ArrayDeque<>();
+            private final ArrayDeque<List<T>> ready = new ArrayDeque<>();
+            // when the first event of `pending`, and of each batch in `ready`, arrived
+            private long pendingSince;
+            private final ArrayDeque<Long> readySince = new ArrayDeque<>();
+            private long requested;
+            private boolean scheduled;
+            // the window has passed but the subscriber wasn't requesting
+            private boolean due;
+            private boolean completed;
+
+            State(Subscriber<? super List<T>> child, Scheduler.Worker worker) {
+                this.child = child;
+                this.worker = worker;
+            }
+
+            @Override
+            public void onStart() {
+                request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(T value) {
+                boolean drain = false;
+                synchronized (this) {
+                    if (pending.size() == maxSize) {
+                        switch (overflow) {
+                            case DROP_OLDEST:
+                                pending.poll();
+                                break;
+                            case DROP_LATEST:
+                                return;
+                            case ERROR:
+                                unsubscribe();
+                                worker.schedule(() -> child.onError(new MissingBackpressureException(
+                                        "more than " + maxSize + " events waiting")));
+                                return;
+                        }
+                    }
+                    if (pending.isEmpty()) {
+                        pendingSince = worker.now();
+                    }
+                    pending.add(value);
+                    if (pending.size() == maxSize && requested > 0) {
+                        cut();
+                        drain = true;
+                    } else if (!scheduled && !due) {
+                        scheduled = true;
+                        worker.schedule(this::windowPassed, windowMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+                if (drain) {
+                    worker.schedule(this::drain);
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                synchronized (this) {
+                    completed = true;
+                    if (!pending.isEmpty()) {
+                        if (requested == 0) {
+                            due = true;
+                            return;
+                        }
+                        cut();
+                    }
+                }
+                worker.schedule(this::drain);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                worker.schedule(() -> child.onError(e));
+            }
+
+            void requestBatches(long n) {
+                if (n <= 0) {
+                    return;
+                }
+                synchronized (this) {
+                    requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                    if (!due && pending.size() < maxSize) {
+                        return;
+                    }
+                    due = false;
+                    cut();
+                }
+                worker.schedule(this::drain);
+            }
+
+            // runs on `worker`
+            private void windowPassed() {
+                synchronized (this) {
+                    scheduled = false;
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    if (requested == 0) {
+                        due = true;
+                        return;
+                    }
+                    cut();
+                }
+                drain();
+            }
+
+            // moves `pending` to a batch of its own; must hold the lock and have a request
+            private void cut() {
+                ready.add(new ArrayList<>(pending));
+                readySince.add(pendingSince);
+                pending.clear();
+                if (requested != Long.MAX_VALUE) {
+                    requested--;
+                }
+            }
+
+            // runs on `worker`
+            private void drain() {
+                while (true) {
+                    List<T> batch;
+                    long since = 0;
+                    boolean complete;
+                    synchronized (this) {
+                        batch = ready.poll();
+                        if (batch != null) {
+                            since = readySince.poll();
+                        }
+                        complete = batch == null && completed && pending.isEmpty();
+                        if (complete) {
+                            // so it's only delivered once
+                            completed = false;
+                        }
+                    }
+                    if (batch != null) {
+                        lagMillis.record(worker.now() - since);
+                        child.onNext(batch);
+                    } else {
+                        if (complete) {
+                            child.onCompleted();
+                        }
+                        return;
+                    }
+                }
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package com.meetup.util;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Prefetches the previous or next page when an access is within `threshold` of the page edge.
+ * For example, if page size is 10 and `threshold` is 2, page 2 will be prefetched upon
+ * `get(30)` and `get(31)` and page 4 will be prefetched upon `get(38)` and `get(39)`.
+ */
+public class ThresholdPrefetchStrategy implements PrefetchStrategy {
+    private final int threshold;
+
+    public ThresholdPrefetchStrategy(int threshold) {
+        checkArgument(threshold > 0);
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void onAccess(int index, Pages pages) {
+        int pageSize = pages.pageSize();
+        int page = index / pageSize;
+        if (index % pageSize < threshold && page >= 1) {
+            pages.prefetch(page - 1);
+        } else if (pageSize - (index % pageSize) <= threshold) {
+            pages.prefetch(page + 1);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.meetup.util;
+
+import rx.Scheduler;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Prefetches in the direction the list is being scrolled, further ahead the faster it's going.
+ * Direction and speed are estimated from consecutive accessed indices over time.
+ *
+ * At low speed this behaves like `ThresholdPrefetchStrategy`, but only looks ahead in the
+ * direction of travel.  At higher speeds it prefetches as many pages as would be scrolled
+ * through within `lookaheadMillis`, up to `maxPagesAhead` (and never so many that the cache
+ * would evict the current page).  Pages that were prefetched in the other direction and haven't
+ * arrived yet are cancelled, so a reversed fling doesn't keep loading pages nobody will see.
+ */
+public class VelocityPrefetchStrategy implements PrefetchStrategy {
+    // accesses further apart than this are treated as a new gesture
+    private static final long IDLE_MILLIS = 500;
+    // weight of the newest sample in the smoothed velocity
+    private static final float SMOOTHING = 0.5f;
+
+    private final int threshold;
+    private final int maxPagesAhead;
+    private final long lookaheadMillis;
+    private final Scheduler clock;
+
+    // guarded by this
+    private int lastIndex = -1;
+    private long lastTime;
+    // items per millisecond, signed by direction
+    private float velocity;
+    private int direction = 1;
+    // last decision, so repeated accesses within a page are no-ops
+    private int lastPage = -1;
+    private int lastDirection;
+    private int lastPagesAhead;
+
+    /**
+     * @param threshold Distance from the page edge that triggers prefetching the adjacent page
+     *                  when scrolling slowly
+     * @param maxPagesAhead Upper bound on pages in flight ahead of the current one
+     * @param lookaheadMillis Roughly how long a page takes to load
+     * @param clock Source of `now()`; should be monotonic
+     */
+    public VelocityPrefetchStrategy(int threshold, int maxPagesAhead, long lookaheadMillis,
+                                    Scheduler clock) {
+        checkArgument(threshold > 0);
+        checkArgument(maxPagesAhead > 0);
+        this.threshold = threshold;
+        this.maxPagesAhead = maxPagesAhead;
+        this.lookaheadMillis = lookaheadMillis;
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized void onAccess(int index, Pages pages) {
+        track(index, clock.now());
+
+        int pageSize = pages.pageSize();
+        int page = index / pageSize;
+        int offset = index % pageSize;
+        // keep the current page and the one behind it cached
+        int limit = Math.max(1, Math.min(maxPagesAhead, pages.maxPagesCached() - 2));
+        int pagesAhead = Math.min(limit,
+                (int) (Math.abs(velocity) * lookaheadMillis / pageSize));
+
+        if (pagesAhead == 0) {
+            // slow: only the adjacent page, and only near the edge we're heading towards
+            boolean nearEdge = direction > 0 ?
+                    pageSize - offset <= threshold :
+                    offset < threshold;
+            if (!nearEdge) {
+                return;
+            }
+            pagesAhead = 1;
+        }
+        if (page == lastPage && direction == lastDirection && pagesAhead == lastPagesAhead) {
+            return;
+        }
+        lastPage = page;
+        lastDirection = direction;
+        lastPagesAhead = pagesAhead;
+
+        for (int i = 1; i <= pagesAhead; i++) {
+            int target = page + direction * i;
+            if (target >= 0) {
+                pages.prefetch(target);
+            }
+        }
+        // the adjacent page behind may still be on screen, anything further back isn't
+        for (int i = 2; i <= maxPagesAhead + 1; i++) {
+            int target = page - direction * i;
+            if (target >= 0) {
+                pages.cancel(target);
+            }
+        }
+    }
+
+    private void track(int index, long now) {
+        if (lastIndex < 0 || now - lastTime > IDLE_MILLIS) {
+            velocity = 0;
+            lastIndex = index;
+            lastTime = now;
+            return;
+        }
+        long elapsed = now - lastTime;
+        if (elapsed <= 0) {
+            // several binds within the same frame; wait for time to pass to measure speed
+            return;
+        }
+        float sample = (float) (index - lastIndex) / elapsed;
+        velocity = SMOOTHING * sample + (1 - SMOOTHING) * velocity;
+        if (velocity != 0) {
+            direction = velocity > 0 ? 1 : -1;
+        }
+        lastIndex = index;
+        lastTime = now;
+    }
+}
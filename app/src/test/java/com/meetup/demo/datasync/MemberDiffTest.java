@@ -0,0 +1,140 @@
+package com.meetup.demo.datasync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.meetup.demo.datasync.model.Member;
+
+import static org.junit.Assert.*;
+
+public class MemberDiffTest {
+    @Test
+    public void findsNothingBetweenEqualRuns() {
+        List<Member> members = dummies(0, 1, 2);
+        assertTrue(MemberDiff.compute(members, dummies(0, 1, 2)).isEmpty());
+        assertTrue(MemberDiff.compute(dummies(), dummies()).isEmpty());
+    }
+
+    @Test
+    public void changesMembersKeptInPlace() {
+        List<Member> before = dummies(0, 1, 2);
+        List<Member> after = dummies(0, 1, 2);
+        after.set(1, new Member(1, "renamed"));
+        assertEquals("[CHANGE(1, 1)]", MemberDiff.compute(before, after).ops.toString());
+    }
+
+    @Test
+    public void movesMembersRatherThanRemovingAndInsertingThem() {
+        MemberDiff diff = MemberDiff.compute(dummies(0, 1, 2, 3), dummies(3, 0, 1, 2));
+        assertEquals("[MOVE(3, 0)]", diff.ops.toString());
+        assertEquals(0, diff.countChange());
+    }
+
+    @Test
+    public void turnsTheOldRunIntoTheNewOne() {
+        Random random = new Random(22);
+        for (int round = 0; round < 20000; round++) {
+            List<Long> ids = new ArrayList<>();
+            for (long id = 0; id < 20; id++) {
+                ids.add(id);
+            }
+            Collections.shuffle(ids, random);
+            int n = random.nextInt(12);
+            List<Member> before = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                before.add(Member.dummy(ids.get(i)));
+            }
+            List<Member> after = new ArrayList<>(before);
+            int edits = random.nextInt(6);
+            for (int edit = 0; edit < edits; edit++) {
+                int at = random.nextInt(after.size() + 1);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        after.add(at, Member.dummy(ids.get(n + edit)));
+                        break;
+                    case 1:
+                        if (at < after.size()) {
+                            after.remove(at);
+                        }
+                        break;
+                    case 2:
+                        if (at < after.size()) {
+                            after.add(random.nextInt(after.size()), after.remove(at));
+                        }
+                        break;
+                    default:
+                        if (at < after.size()) {
+                            after.set(at, new Member(after.get(at).id, "renamed " + edit));
+                        }
+                        break;
+                }
+            }
+            check("round " + round + ": " + before + " -> " + after, before, after);
+        }
+    }
+
+    // applies the diff's ops to the ids of `before`, as the adapter would see them
+    private static void check(String message, List<Member> before, List<Member> after) {
+        MemberDiff diff = MemberDiff.compute(before, after);
+        message += " " + diff.ops;
+        List<Long> ids = idsOf(before);
+        Set<Integer> changed = new TreeSet<>();
+        for (MemberDiff.Op op : diff.ops) {
+            switch (op.type) {
+                case REMOVE:
+                    ids.subList(op.position, op.position + op.countOrTo).clear();
+                    break;
+                case INSERT:
+                    ids.addAll(op.position,
+                            idsOf(after.subList(op.position, op.position + op.countOrTo)));
+                    break;
+                case MOVE:
+                    ids.add(op.countOrTo, ids.remove(op.position));
+                    break;
+                case CHANGE:
+                    // changes come last, so positions are in `after`
+                    assertTrue(message, changed.add(op.position));
+                    break;
+            }
+        }
+        assertEquals(message, idsOf(after), ids);
+        assertEquals(message, after.size() - before.size(), diff.countChange());
+
+        Map<Long, Member> old = new HashMap<>();
+        for (Member member : before) {
+            old.put(member.id, member);
+        }
+        Set<Integer> edited = new TreeSet<>();
+        for (int j = 0; j < after.size(); j++) {
+            Member was = old.get(after.get(j).id);
+            if (was != null && !was.equals(after.get(j))) {
+                edited.add(j);
+            }
+        }
+        assertEquals(message, edited, changed);
+    }
+
+    private static List<Member> dummies(long... ids) {
+        List<Member> members = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            members.add(Member.dummy(id));
+        }
+        return members;
+    }
+
+    private static List<Long> idsOf(List<Member> members) {
+        List<Long> ids = new ArrayList<>(members.size());
+        for (Member member : members) {
+            ids.add(member.id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,150 @@
+package com.meetup.demo.datasync.model;
+
+import com.google.common.base.Charsets;
+
+import org.junit.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MemberCodecTest {
+    private static final String ASCII = "Anon 42";
+    private static final String NON_ASCII = "Zoë 张伟";
+    // U+1F600, outside the basic multilingual plane
+    private static final String SUPPLEMENTARY = "smile 😀";
+
+    @Test
+    public void roundTripsAsciiNames() {
+        assertRoundTrip(page(ASCII, "b", ""));
+    }
+
+    @Test
+    public void roundTripsNonAsciiNames() {
+        assertRoundTrip(page(NON_ASCII, "naïve", "Ωmega"));
+    }
+
+    @Test
+    public void roundTripsSupplementaryNames() {
+        assertRoundTrip(page(SUPPLEMENTARY, ASCII + SUPPLEMENTARY + NON_ASCII));
+        assertEquals(SUPPLEMENTARY.getBytes(Charsets.UTF_8).length,
+                MemberCodec.utf8Length(SUPPLEMENTARY));
+    }
+
+    @Test
+    public void roundTripsNullNames() {
+        assertRoundTrip(page(ASCII, null, null, ASCII));
+    }
+
+    @Test
+    public void roundTripsEmptyPages() {
+        assertRoundTrip(Collections.emptyList());
+    }
+
+    @Test
+    public void writesRepeatedNamesOnceWhenSharing() {
+        List<Member> members = page(ASCII, NON_ASCII, ASCII, ASCII, NON_ASCII, null, null);
+        MemberCodec shared = new MemberCodec(true);
+        assertEquals(members, decode(shared, encode(shared, members, false)));
+        assertEquals(members, decode(shared, encode(shared, members, true)));
+        assertTrue(shared.encodedSize(members) < new MemberCodec().encodedSize(members));
+        // readable without knowing it was written with shared names
+        assertEquals(members, decode(new MemberCodec(), encode(shared, members, false)));
+    }
+
+    @Test
+    public void roundTripsSingleMembers() {
+        MemberCodec codec = new MemberCodec();
+        for (String name : Arrays.asList(ASCII, NON_ASCII, SUPPLEMENTARY, "", null)) {
+            Member member = new Member(7, name);
+            ByteBuffer buffer = ByteBuffer.allocate(codec.encodedSize(member));
+            codec.encode(member, buffer);
+            assertFalse(buffer.hasRemaining());
+            buffer.flip();
+            assertEquals(member, codec.decodeMember(buffer));
+        }
+    }
+
+    @Test
+    public void rejectsOtherVersions() {
+        MemberCodec codec = new MemberCodec();
+        ByteBuffer page = encode(codec, page(ASCII), false);
+        page.put(0, (byte) (MemberCodec.VERSION + 1));
+        assertRejected(() -> codec.decode(page));
+
+        Member member = new Member(1, ASCII);
+        ByteBuffer single = ByteBuffer.allocate(codec.encodedSize(member));
+        codec.encode(member, single);
+        single.flip();
+        single.put(0, (byte) 0);
+        assertRejected(() -> codec.decodeMember(single));
+    }
+
+    @Test
+    public void rejectsTruncatedPages() {
+        for (MemberCodec codec : Arrays.asList(new MemberCodec(), new MemberCodec(true))) {
+            ByteBuffer whole = encode(codec, page(ASCII, NON_ASCII, ASCII, SUPPLEMENTARY), false);
+            for (int length = 0; length < whole.limit(); length++) {
+                ByteBuffer truncated = whole.duplicate();
+                truncated.limit(length);
+                assertRejected(() -> codec.decode(truncated));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedMembers() {
+        MemberCodec codec = new MemberCodec();
+        Member member = new Member(1, NON_ASCII);
+        ByteBuffer whole = ByteBuffer.allocate(codec.encodedSize(member));
+        codec.encode(member, whole);
+        for (int length = 0; length < whole.limit(); length++) {
+            ByteBuffer truncated = whole.duplicate();
+            truncated.position(0);
+            truncated.limit(length);
+            assertRejected(() -> codec.decodeMember(truncated));
+        }
+    }
+
+    private static List<Member> page(String... names) {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            members.add(new Member(1000 + i, names[i]));
+        }
+        return members;
+    }
+
+    // through heap and direct buffers, which decode along different paths
+    private static void assertRoundTrip(List<Member> members) {
+        MemberCodec codec = new MemberCodec();
+        assertEquals(members, decode(codec, encode(codec, members, false)));
+        assertEquals(members, decode(codec, encode(codec, members, true)));
+    }
+
+    private static ByteBuffer encode(MemberCodec codec, List<Member> members, boolean direct) {
+        int size = codec.encodedSize(members);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        codec.encode(members, buffer);
+        assertFalse("encodedSize is exact", buffer.hasRemaining());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static List<Member> decode(MemberCodec codec, ByteBuffer buffer) {
+        return codec.decode(buffer.duplicate());
+    }
+
+    private static void assertRejected(Runnable decode) {
+        try {
+            decode.run();
+            fail("malformed data was decoded");
+        } catch (IllegalArgumentException | BufferUnderflowException expected) {
+            // what `DiskPageCache` treats as an unreadable file
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.meetup.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.*;
+
+public class DiskPageCacheTest {
+    // a page of two ints is a 12 byte header, a count and the ints
+    private static final long PAGE_BYTES = DiskPageCache.HEADER_SIZE + 4 + 2 * 4;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = new File(folder.getRoot(), "pages");
+    }
+
+    @Test
+    public void readsWhatWasWritten() {
+        DiskPageCache<Integer> cache = cache(1024);
+        assertEquals(-1, cache.getTotal());
+        assertNull(cache.get(0));
+        cache.write(0, items(0), 10);
+        DiskPageCache.Page<Integer> page = cache.get(0);
+        assertEquals(items(0), page.items);
+        assertEquals(10, page.total);
+        assertEquals(10, cache.getTotal());
+        assertEquals(items(0), cache.read(0).toBlocking().single().items);
+        assertTrue(cache.read(1).isEmpty().toBlocking().single());
+        assertEquals(10, (int) cache.readTotal().toBlocking().single());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedPagesOverMaxBytes() {
+        DiskPageCache<Integer> cache = cache(3 * PAGE_BYTES);
+        cache.write(0, items(0), 10);
+        cache.write(1, items(1), 10);
+        cache.write(2, items(2), 10);
+        assertEquals(3 * PAGE_BYTES, cache.sizeBytes());
+        // page 1 is now the least recently used
+        assertNotNull(cache.get(0));
+        cache.write(3, items(3), 10);
+        assertNull(cache.get(1));
+        assertFalse(fileFor(1).exists());
+        assertNotNull(cache.get(0));
+        assertNotNull(cache.get(2));
+        assertNotNull(cache.get(3));
+        assertEquals(3 * PAGE_BYTES, cache.sizeBytes());
+    }
+
+    @Test
+    public void writingADifferentTotalDropsOtherPages() {
+        DiskPageCache<Integer> cache = cache(1024);
+        cache.write(0, items(0), 10);
+        cache.write(1, items(1), 10);
+        cache.write(2, items(2), 11);
+        assertNull(cache.get(0));
+        assertNull(cache.get(1));
+        assertFalse(fileFor(0).exists());
+        assertFalse(fileFor(1).exists());
+        assertEquals(items(2), cache.get(2).items);
+        assertEquals(11, cache.getTotal());
+        assertEquals(PAGE_BYTES, cache.sizeBytes());
+    }
+
+    @Test
+    public void deletesTruncatedFiles() throws IOException {
+        DiskPageCache<Integer> cache = cache(1024);
+        cache.write(0, items(0), 10);
+        cache.write(1, items(1), 10);
+        try (RandomAccessFile file = new RandomAccessFile(fileFor(1), "rw")) {
+            file.setLength(PAGE_BYTES - 2);
+        }
+        assertNull(cache.get(1));
+        assertFalse(fileFor(1).exists());
+        assertEquals(items(0), cache.get(0).items);
+        assertEquals(PAGE_BYTES, cache.sizeBytes());
+    }
+
+    @Test
+    public void deletesGarbageFiles() throws IOException {
+        DiskPageCache<Integer> cache = cache(1024);
+        cache.write(0, items(0), 10);
+        cache.write(1, items(1), 10);
+        // not a page file at all
+        writeBytes(fileFor(0), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15});
+        assertNull(cache.get(0));
+        assertFalse(fileFor(0).exists());
+        // a valid header over a payload the codec rejects
+        ByteBuffer bad = ByteBuffer.allocate((int) PAGE_BYTES);
+        bad.putInt(DiskPageCache.MAGIC).putInt(10).putInt(12).putInt(-5);
+        writeBytes(fileFor(1), bad.array());
+        assertNull(cache.get(1));
+        assertFalse(fileFor(1).exists());
+        assertEquals(0, cache.sizeBytes());
+    }
+
+    @Test
+    public void rebuildsFromAnExistingDirectory() {
+        DiskPageCache<Integer> writer = cache(1024);
+        writer.write(0, items(0), 10);
+        writer.write(4, items(4), 10);
+
+        DiskPageCache<Integer> reader = cache(1024);
+        assertEquals(10, reader.getTotal());
+        assertEquals(2 * PAGE_BYTES, reader.sizeBytes());
+        assertEquals(items(0), reader.get(0).items);
+        assertEquals(items(4), reader.get(4).items);
+        assertNull(reader.get(1));
+    }
+
+    @Test
+    public void rebuildingEvictsOldestFilesOverMaxBytes() {
+        DiskPageCache<Integer> writer = cache(1024);
+        writer.write(0, items(0), 10);
+        writer.write(1, items(1), 10);
+        writer.write(2, items(2), 10);
+        // modification times are all the cache has to go on after a restart
+        long now = System.currentTimeMillis();
+        assertTrue(fileFor(1).setLastModified(now - 30000));
+        assertTrue(fileFor(0).setLastModified(now - 20000));
+        assertTrue(fileFor(2).setLastModified(now - 10000));
+
+        DiskPageCache<Integer> reader = cache(2 * PAGE_BYTES);
+        assertEquals(2 * PAGE_BYTES, reader.sizeBytes());
+        assertFalse(fileFor(1).exists());
+        assertNotNull(reader.get(0));
+        assertNotNull(reader.get(2));
+    }
+
+    @Test
+    public void removesLeftoversOnInit() throws IOException {
+        DiskPageCache<Integer> writer = cache(1024);
+        writer.write(0, items(0), 10);
+        File temp = new File(dir, fileFor(1).getName() + ".tmp");
+        File stray = new File(dir, "unrelated");
+        writeBytes(temp, new byte[]{1, 2, 3});
+        writeBytes(stray, new byte[]{1});
+
+        DiskPageCache<Integer> reader = cache(1024);
+        assertEquals(PAGE_BYTES, reader.sizeBytes());
+        assertFalse(temp.exists());
+        assertFalse(stray.exists());
+        assertEquals(items(0), reader.get(0).items);
+    }
+
+    @Test
+    public void invalidateAllDeletesEverything() {
+        DiskPageCache<Integer> cache = cache(1024);
+        cache.write(0, items(0), 10);
+        cache.write(1, items(1), 10);
+        cache.invalidateAll();
+        assertEquals(-1, cache.getTotal());
+        assertEquals(0, cache.sizeBytes());
+        assertEquals(0, dir.list().length);
+    }
+
+    private DiskPageCache<Integer> cache(long maxBytes) {
+        return new DiskPageCache<>(dir, new IntCodec(), maxBytes, Schedulers.immediate());
+    }
+
+    private File fileFor(int page) {
+        return new File(dir, "page-" + page + ".bin");
+    }
+
+    private static List<Integer> items(int page) {
+        return Arrays.asList(page * 2, page * 2 + 1);
+    }
+
+    private static void writeBytes(File file, byte[] bytes) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    // a count, then the ints
+    private static class IntCodec implements PageCodec<Integer> {
+        @Override
+        public int encodedSize(List<Integer> items) {
+            return 4 + 4 * items.size();
+        }
+
+        @Override
+        public void encode(List<Integer> items, ByteBuffer buffer) {
+            buffer.putInt(items.size());
+            for (int item : items) {
+                buffer.putInt(item);
+            }
+        }
+
+        @Override
+        public List<Integer> decode(ByteBuffer buffer) {
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 4) {
+                throw new IllegalArgumentException("bad count " + count);
+            }
+            List<Integer> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(buffer.getInt());
+            }
+            return items;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.meetup.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventJournalTest {
+    private static final long TTL_MILLIS = 1000;
+    private static final long EPOCH_MILLIS = 1000000;
+    // an int event after the length and time
+    private static final int RECORD_SIZE = EventJournal.RECORD_HEADER_SIZE + 4;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = new File(folder.getRoot(), "events");
+    }
+
+    @Test
+    public void readsWhatWasAppended() {
+        EventJournal<Integer> journal = journal(EPOCH_MILLIS);
+        assertTrue(journal.read(0).isEmpty());
+        journal.append(100, 1);
+        journal.append(200, 2);
+        journal.append(200, 3);
+        journal.append(300, 4);
+        assertEquals(Arrays.asList(1, 2, 3, 4), values(journal.read(0)));
+        assertEquals(Arrays.asList(100L, 200L, 200L, 300L), times(journal.read(0)));
+        assertEquals(Arrays.asList(2, 3, 4), values(journal.read(200)));
+        assertTrue(journal.read(301).isEmpty());
+
+        // as a restarted process would
+        EventJournal<Integer> reopened = journal(EPOCH_MILLIS);
+        assertEquals(Arrays.asList(2, 3, 4), values(reopened.read(150)));
+        reopened.append(400, 5);
+        assertEquals(Arrays.asList(4, 5), values(reopened.read(300)));
+    }
+
+    @Test
+    public void readsATornRecordAsTheEnd() throws IOException {
+        EventJournal<Integer> journal = journal(EPOCH_MILLIS);
+        journal.append(100, 1);
+        journal.append(110, 2);
+        journal.append(120, 3);
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            // the length is written last, so a record cut short has none
+            file.seek(EventJournal.HEADER_SIZE + 2 * RECORD_SIZE);
+            file.writeInt(0);
+        }
+        assertEquals(Arrays.asList(1, 2), values(journal(EPOCH_MILLIS).read(0)));
+
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            file.seek(EventJournal.HEADER_SIZE + RECORD_SIZE);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+        assertEquals(Arrays.asList(1), values(journal(EPOCH_MILLIS).read(0)));
+    }
+
+    @Test
+    public void rollsSegmentsEveryQuarterOfTheTtl() {
+        EventJournal<Integer> journal = journal(EPOCH_MILLIS);
+        journal.append(0, 1);
+        journal.append(TTL_MILLIS / 4 - 1, 2);
+        assertEquals(1, segmentCount());
+        journal.append(TTL_MILLIS / 4, 3);
+        assertEquals(2, segmentCount());
+        journal.append(TTL_MILLIS / 2 + 100, 4);
+        assertEquals(3, segmentCount());
+        assertEquals(Arrays.asList(1, 2, 3, 4), values(journal.read(0)));
+    }
+
+    @Test
+    public void deletesSegmentsOnceEverythingInThemExpired() {
+        EventJournal<Integer> journal = journal(EPOCH_MILLIS);
+        journal.append(0, 1);
+        journal.append(250, 2);
+        journal.append(600, 3);
+        assertEquals(3, segmentCount());
+
+        // the first segment ends where the second starts, which is past the TTL by now
+        journal.append(1300, 4);
+        assertEquals(3, segmentCount());
+        assertEquals(Arrays.asList(2, 3, 4), values(journal.read(0)));
+
+        journal.append(5000, 5);
+        assertEquals(2, segmentCount());
+        assertEquals(Arrays.asList(4, 5), values(journal.read(0)));
+        assertEquals(Arrays.asList(5), values(journal.read(5000 - TTL_MILLIS)));
+    }
+
+    @Test
+    public void dropsSegmentsFromAnotherBoot() throws IOException {
+        EventJournal<Integer> journal = journal(EPOCH_MILLIS);
+        journal.append(100, 1);
+        assertTrue(new File(dir, "unrelated").createNewFile());
+
+        // the wall clock moved a little, but it's the same boot
+        EventJournal<Integer> adjusted =
+                journal(EPOCH_MILLIS + EventJournal.EPOCH_TOLERANCE_MILLIS);
+        assertEquals(Arrays.asList(1), values(adjusted.read(0)));
+        assertFalse(new File(dir, "unrelated").exists());
+
+        EventJournal<Integer> rebooted =
+                journal(EPOCH_MILLIS + EventJournal.EPOCH_TOLERANCE_MILLIS + 1);
+        assertTrue(rebooted.read(0).isEmpty());
+        assertEquals(0, segmentCount());
+        rebooted.append(50, 2);
+        assertEquals(Arrays.asList(2), values(rebooted.read(0)));
+    }
+
+    private EventJournal<Integer> journal(long epochMillis) {
+        return new EventJournal<>(dir, new IntCodec(), TTL_MILLIS, epochMillis);
+    }
+
+    private int segmentCount() {
+        String[] names = dir.list();
+        return names != null ? names.length : 0;
+    }
+
+    private static List<Integer> values(List<EventJournal.Record<Integer>> records) {
+        List<Integer> values = new ArrayList<>(records.size());
+        for (EventJournal.Record<Integer> record : records) {
+            values.add(record.value);
+        }
+        return values;
+    }
+
+    private static List<Long> times(List<EventJournal.Record<Integer>> records) {
+        List<Long> times = new ArrayList<>(records.size());
+        for (EventJournal.Record<Integer> record : records) {
+            times.add(record.time);
+        }
+        return times;
+    }
+
+    private static class IntCodec implements EventCodec<Integer> {
+        @Override
+        public int encodedSize(Integer event) {
+            return 4;
+        }
+
+        @Override
+        public void encode(Integer event, ByteBuffer buffer) {
+            buffer.putInt(event);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    }
+}
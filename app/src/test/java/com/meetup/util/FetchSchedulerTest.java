@@ -0,0 +1,144 @@
+package com.meetup.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.Subscription;
+import rx.subjects.PublishSubject;
+
+import static com.meetup.util.FetchScheduler.Priority.*;
+import static org.junit.Assert.*;
+
+public class FetchSchedulerTest {
+    private final FetchScheduler scheduler = new FetchScheduler(1);
+    // fetches in the order they started
+    private final List<String> started = new ArrayList<>();
+
+    @Test
+    public void startsByPriorityThenMostRecentFirst() {
+        PublishSubject<String> blocker = submit("blocker", VISIBLE);
+        PublishSubject<String> background = submit("background", BACKGROUND);
+        PublishSubject<String> scrolledPast = submit("scrolledPast", PREFETCH);
+        PublishSubject<String> visible = submit("visible", VISIBLE);
+        PublishSubject<String> ahead = submit("ahead", PREFETCH);
+        assertEquals(4, scheduler.getQueued());
+
+        blocker.onCompleted();
+        visible.onCompleted();
+        ahead.onCompleted();
+        scrolledPast.onCompleted();
+        background.onCompleted();
+        assertEquals(Arrays.asList("blocker", "visible", "ahead", "scrolledPast", "background"),
+                started);
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void reordersQueuedTasksOnSetPriority() {
+        PublishSubject<String> blocker = submit("blocker", VISIBLE);
+        List<FetchScheduler.Task<String>> tasks = new ArrayList<>();
+        PublishSubject<String> first = submit("first", PREFETCH, tasks);
+        PublishSubject<String> second = submit("second", PREFETCH, tasks);
+        PublishSubject<String> third = submit("third", PREFETCH, tasks);
+        tasks.get(0).setPriority(VISIBLE);
+        // same priority, but now the most recent
+        tasks.get(1).setPriority(PREFETCH);
+        assertEquals(PREFETCH, tasks.get(1).getPriority());
+        assertTrue(tasks.get(2).isQueued());
+
+        blocker.onCompleted();
+        first.onCompleted();
+        second.onCompleted();
+        third.onCompleted();
+        assertEquals(Arrays.asList("blocker", "first", "second", "third"), started);
+        assertFalse(tasks.get(2).isQueued());
+    }
+
+    @Test
+    public void dropsQueuedTasksWhenUnsubscribed() {
+        PublishSubject<String> blocker = submit("blocker", VISIBLE);
+        FetchScheduler.Task<String> task = scheduler.submit(
+                PublishSubject.<String>create().doOnSubscribe(() -> started.add("dropped")),
+                VISIBLE);
+        Subscription subscription = task.observable.subscribe();
+        PublishSubject<String> kept = submit("kept", PREFETCH);
+        assertTrue(task.isQueued());
+        assertEquals(2, scheduler.getQueued());
+
+        subscription.unsubscribe();
+        assertFalse(task.isQueued());
+        assertEquals(1, scheduler.getQueued());
+        blocker.onCompleted();
+        kept.onCompleted();
+        assertEquals(Arrays.asList("blocker", "kept"), started);
+    }
+
+    @Test
+    public void releasesTheSlotOnceWhenFetchesComplete() {
+        FetchScheduler twoSlots = new FetchScheduler(2);
+        PublishSubject<String> first = PublishSubject.create();
+        PublishSubject<String> second = PublishSubject.create();
+        PublishSubject<String> third = PublishSubject.create();
+        twoSlots.submit(first, VISIBLE).observable.subscribe();
+        AtomicBoolean failed = new AtomicBoolean();
+        twoSlots.submit(second, VISIBLE).observable.subscribe(value -> { },
+                error -> failed.set(true));
+        twoSlots.submit(third, VISIBLE).observable.subscribe();
+        assertEquals(2, twoSlots.getRunning());
+        assertFalse(third.hasObservers());
+
+        // terminating unsubscribes too; that mustn't free a second slot
+        first.onNext("done");
+        first.onCompleted();
+        assertEquals(2, twoSlots.getRunning());
+        assertEquals(0, twoSlots.getQueued());
+        assertTrue(third.hasObservers());
+
+        second.onError(new RuntimeException());
+        assertTrue(failed.get());
+        assertEquals(1, twoSlots.getRunning());
+        third.onCompleted();
+        assertEquals(0, twoSlots.getRunning());
+    }
+
+    @Test
+    public void releasesTheSlotOnceWhenRunningFetchesAreUnsubscribed() {
+        PublishSubject<String> first = PublishSubject.create();
+        Subscription subscription = scheduler.submit(first, VISIBLE).observable.subscribe();
+        PublishSubject<String> second = submit("second", VISIBLE);
+        PublishSubject<String> third = submit("third", BACKGROUND);
+        assertEquals(1, scheduler.getRunning());
+
+        subscription.unsubscribe();
+        assertFalse(first.hasObservers());
+        assertEquals(Arrays.asList("second"), started);
+        subscription.unsubscribe();
+        assertEquals(1, scheduler.getRunning());
+        assertEquals(1, scheduler.getQueued());
+
+        second.onCompleted();
+        third.onCompleted();
+        assertEquals(Arrays.asList("second", "third"), started);
+        assertEquals(0, scheduler.getRunning());
+    }
+
+    private PublishSubject<String> submit(String name, FetchScheduler.Priority priority) {
+        return submit(name, priority, new ArrayList<>());
+    }
+
+    // subscribes to a fetch called `name`, adding its task to `tasks`
+    private PublishSubject<String> submit(String name, FetchScheduler.Priority priority,
+                                          List<FetchScheduler.Task<String>> tasks) {
+        PublishSubject<String> fetch = PublishSubject.create();
+        FetchScheduler.Task<String> task = scheduler.submit(
+                fetch.doOnSubscribe(() -> started.add(name)), priority);
+        tasks.add(task);
+        task.observable.subscribe();
+        return fetch;
+    }
+}
@@ -0,0 +1,132 @@
+package com.meetup.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.meetup.util.Metrics.Histogram.*;
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+    @Test
+    public void bucketsSmallValuesExactly() {
+        for (int value = 0; value < SUB_BUCKETS; value++) {
+            assertEquals(value, bucket(value));
+            assertEquals(value, highestIn(value));
+        }
+    }
+
+    @Test
+    public void bucketsMeetAtPowersOfTwo() {
+        for (int exponent = SUB_BUCKET_BITS; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            assertEquals(bucket(power - 1) + 1, bucket(power));
+            assertEquals(power - 1, highestIn(bucket(power - 1)));
+            assertEquals(power + (power >> SUB_BUCKET_BITS) - 1, highestIn(bucket(power)));
+        }
+    }
+
+    @Test
+    public void bucketsEveryValueToWithinASixteenth() {
+        for (long value : Arrays.asList(16L, 17L, 33L, 100L, 1000L, 123456789L, 1L << 40,
+                (1L << 62) + 1, Long.MAX_VALUE - 1)) {
+            long highest = highestIn(bucket(value));
+            assertTrue(value + " <= " + highest, value <= highest);
+            assertTrue(highest - value <= value / SUB_BUCKETS);
+            assertTrue(highestIn(bucket(value) - 1) < value);
+        }
+    }
+
+    @Test
+    public void bucketsLongMaxValueLast() {
+        assertEquals(BUCKETS - 1, bucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, highestIn(BUCKETS - 1));
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().getValueAtPercentile(100));
+    }
+
+    @Test
+    public void readsPercentilesWithinPrecision() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        Metrics.Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500.5, snapshot.getMean(), 0);
+        for (int percentile : new int[]{1, 50, 90, 99}) {
+            long value = snapshot.getValueAtPercentile(percentile);
+            long exact = percentile * 10;
+            assertTrue(percentile + ": " + value, value >= exact);
+            assertTrue(percentile + ": " + value, value <= exact + exact / SUB_BUCKETS);
+        }
+        assertEquals(1, snapshot.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void clampsPercentilesToTheMax() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        histogram.record(100);
+        // 100 shares a bucket with values up to 103
+        assertEquals(103, highestIn(bucket(100)));
+        Metrics.Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getMax());
+        assertEquals(100, snapshot.getValueAtPercentile(50));
+        assertEquals(100, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPercentilesOver100() {
+        new Metrics.Histogram().snapshot().getValueAtPercentile(100.5);
+    }
+
+    @Test
+    public void readsEmptyHistogramsAsZero() {
+        Metrics.Histogram.Snapshot snapshot = new Metrics.Histogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMean(), 0);
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void recordsNegativeValuesAsZero() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MIN_VALUE);
+        Metrics.Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getMean(), 0);
+        assertEquals(0, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void snapshotsCountersAndHistograms() {
+        Metrics metrics = new Metrics();
+        metrics.counter("b").add(5);
+        metrics.counter("b").decrement();
+        metrics.counter("a").increment();
+        metrics.histogram("latency").record(7);
+        assertSame(metrics.counter("a"), metrics.counter("a"));
+        assertSame(metrics.histogram("latency"), metrics.histogram("latency"));
+
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(snapshot.counters.keySet().toArray()));
+        assertEquals(1, snapshot.counter("a"));
+        assertEquals(4, snapshot.counter("b"));
+        assertEquals(0, snapshot.counter("missing"));
+        assertEquals(1, snapshot.histogram("latency").getCount());
+        assertEquals(7, snapshot.histogram("latency").getMax());
+        assertNull(snapshot.histogram("missing"));
+        assertEquals("a 1\nb 4\nlatency " + snapshot.histogram("latency") + "\n",
+                snapshot.toString());
+
+        // later recording doesn't show through
+        metrics.counter("a").increment();
+        metrics.histogram("latency").record(9);
+        assertEquals(1, snapshot.counter("a"));
+        assertEquals(1, snapshot.histogram("latency").getCount());
+        assertEquals(2, metrics.snapshot().counter("a"));
+    }
+}
@@ -0,0 +1,212 @@
+package com.meetup.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.Observable;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
+
+import static org.junit.Assert.*;
+
+public class PaginationCacheTest {
+    private static final int PAGE_SIZE = 10;
+
+    // pages resolve as soon as they're asked for, unless held back with `hold`
+    private static class TestCache extends PaginationCache<Integer> {
+        final Map<Integer, PublishSubject<List<Integer>>> held = new HashMap<>();
+
+        TestCache(int maxPagesCached) {
+            super(PAGE_SIZE, PrefetchStrategy.NONE, maxPagesCached);
+        }
+
+        void hold(int page) {
+            held.put(page, PublishSubject.create());
+        }
+
+        void release(int page) {
+            PublishSubject<List<Integer>> subject = held.remove(page);
+            subject.onNext(items(page));
+            subject.onCompleted();
+        }
+
+        @Override
+        public Observable<List<Integer>> fetchPage(int page) {
+            PublishSubject<List<Integer>> subject = held.get(page);
+            return subject != null ? subject : Observable.just(items(page));
+        }
+    }
+
+    private static List<Integer> items(int page) {
+        List<Integer> items = new ArrayList<>(PAGE_SIZE);
+        for (int i = page * PAGE_SIZE; i < (page + 1) * PAGE_SIZE; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    private static void load(PaginationCache<Integer> cache, int... pages) {
+        for (int page : pages) {
+            cache.getPage(page).subscribe();
+        }
+    }
+
+    @Test
+    public void weighsItemsOneEachByDefault() {
+        TestCache cache = new TestCache(8);
+        load(cache, 0, 1);
+        assertEquals(2 * PAGE_SIZE, cache.getWeight());
+    }
+
+    @Test
+    public void evictsByWeightKeepingThePageJustResolved() {
+        TestCache cache = new TestCache(8);
+        cache.setMaxWeight(2 * PAGE_SIZE);
+        load(cache, 0, 1, 2);
+        assertFalse(cache.isPageResolved(0));
+        assertTrue(cache.isPageResolved(1));
+        assertTrue(cache.isPageResolved(2));
+        assertEquals(2 * PAGE_SIZE, cache.getWeight());
+
+        // even a page over the budget on its own is kept until the next one resolves
+        cache.setMaxWeight(PAGE_SIZE / 2);
+        assertEquals(0, cache.getWeight());
+        load(cache, 3);
+        assertTrue(cache.isPageResolved(3));
+        assertEquals(PAGE_SIZE, cache.getWeight());
+    }
+
+    @Test
+    public void trimsToAFractionOfTheBudget() {
+        TestCache cache = new TestCache(8);
+        cache.setMaxWeight(4 * PAGE_SIZE);
+        load(cache, 0, 1, 2, 3);
+        // least recently used go first
+        load(cache, 0);
+
+        assertEquals(2, cache.trim(0.5f));
+        assertEquals(2 * PAGE_SIZE, cache.getWeight());
+        assertTrue(cache.isPageResolved(0));
+        assertFalse(cache.isPageResolved(1));
+        assertFalse(cache.isPageResolved(2));
+        assertTrue(cache.isPageResolved(3));
+        // the budget itself stays, so the cache fills up again
+        assertEquals(4 * PAGE_SIZE, cache.getMaxWeight());
+        load(cache, 1, 2);
+        assertEquals(4 * PAGE_SIZE, cache.getWeight());
+
+        assertEquals(4, cache.trim(0));
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.trim(0));
+    }
+
+    @Test
+    public void trimsAgainstTheCurrentWeightWhenUnbounded() {
+        TestCache cache = new TestCache(8);
+        load(cache, 0, 1, 2, 3);
+        assertEquals(2, cache.trim(0.5f));
+        assertEquals(2 * PAGE_SIZE, cache.getWeight());
+        assertEquals(0, cache.trim(1));
+    }
+
+    @Test
+    public void keepsPagesStillLoadingThroughATrim() {
+        TestCache cache = new TestCache(8);
+        load(cache, 0);
+        cache.hold(1);
+        List<List<Integer>> received = new ArrayList<>();
+        cache.getPage(1).subscribe(received::add);
+
+        assertEquals(1, cache.trim(0));
+        assertFalse(cache.isPageResolved(0));
+        cache.release(1);
+        assertEquals(1, received.size());
+        assertEquals(items(1), received.get(0));
+        assertTrue(cache.isPageResolved(1));
+        assertEquals(PAGE_SIZE, cache.getWeight());
+    }
+
+    @Test
+    public void evictsResolvedPagesBeforeOnesStillLoading() {
+        TestCache cache = new TestCache(3);
+        cache.setViewport(0, PAGE_SIZE);
+        load(cache, 0, 1);
+        cache.hold(5);
+        cache.hold(6);
+        List<List<Integer>> received = new ArrayList<>();
+        cache.getRange(5 * PAGE_SIZE, 7 * PAGE_SIZE).subscribe(received::add);
+
+        // page 5 is farther from the viewport, but the range is still waiting on it
+        assertFalse(cache.isPageResolved(1));
+        assertTrue(cache.isPageResolved(0));
+        cache.release(5);
+        cache.release(6);
+        List<Integer> expected = new ArrayList<>(items(5));
+        expected.addAll(items(6));
+        assertEquals(1, received.size());
+        assertEquals(expected, received.get(0));
+    }
+
+    @Test
+    public void completesSubscribersOfDroppedPagesStillLoading() {
+        TestCache cache = new TestCache(2);
+        cache.hold(0);
+        cache.hold(1);
+        List<List<Integer>> pages = new ArrayList<>();
+        AtomicBoolean pageCompleted = new AtomicBoolean();
+        cache.getPage(0).subscribe(pages::add, error -> fail(), () -> pageCompleted.set(true));
+        AtomicBoolean itemCompleted = new AtomicBoolean();
+        cache.get(15).subscribe(item -> fail(), error -> fail(), () -> itemCompleted.set(true));
+
+        // with every page loading, the least recently used goes
+        load(cache, 2);
+        assertTrue(pageCompleted.get());
+        assertEquals(Collections.singletonList(Collections.<Integer>emptyList()), pages);
+        assertTrue(cache.isPageResolved(2));
+
+        cache.invalidateAll();
+        assertTrue(itemCompleted.get());
+    }
+
+    @Test
+    public void completesRevalidationsOfDroppedPages() {
+        TestCache cache = new TestCache(8);
+        load(cache, 0, 1);
+        cache.hold(0);
+        cache.hold(1);
+        AtomicBoolean completed = new AtomicBoolean();
+        cache.revalidateAll().subscribe(done -> fail(), error -> fail(), () -> completed.set(true));
+
+        assertEquals(1, cache.invalidatePages(page -> page == 0).size());
+        assertFalse(completed.get());
+        assertEquals(1, cache.trim(0));
+        assertTrue(completed.get());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void memoryTrimmerTrimsRegisteredCachesUntilUnsubscribed() {
+        MemoryTrimmer trimmer = new MemoryTrimmer();
+        TestCache first = new TestCache(8);
+        TestCache second = new TestCache(8);
+        Subscription firstRegistration = trimmer.register(first::trim);
+        trimmer.register(second::trim);
+        load(first, 0, 1);
+        load(second, 0, 1);
+
+        trimmer.trim(0.5f);
+        assertEquals(PAGE_SIZE, first.getWeight());
+        assertEquals(PAGE_SIZE, second.getWeight());
+
+        firstRegistration.unsubscribe();
+        trimmer.trim(0);
+        assertEquals(PAGE_SIZE, first.getWeight());
+        assertEquals(0, second.getWeight());
+    }
+}
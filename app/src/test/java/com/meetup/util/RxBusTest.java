@@ -0,0 +1,312 @@
+package com.meetup.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import rx.exceptions.MissingBackpressureException;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.*;
+
+public class RxBusTest {
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(RxBus.TTL_SECONDS);
+
+    private static final class Event {
+        final int key;
+        final int weight;
+        final int sequence;
+
+        Event(int key, int weight, int sequence) {
+            this.key = key;
+            this.weight = weight;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public String toString() {
+            return key + "#" + sequence;
+        }
+    }
+
+    private TestScheduler scheduler;
+    private RxBus bus;
+    private int sequence;
+
+    @Before
+    public void setUp() {
+        scheduler = new TestScheduler();
+        // replaying from 0 means everything, so start the clock past it
+        scheduler.advanceTimeTo(1, TimeUnit.MILLISECONDS);
+        bus = new RxBus(scheduler);
+    }
+
+    @Test
+    public void replaysEventsPostedSinceATime() {
+        RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class);
+        Event first = post(driver, 0);
+        advance(10);
+        long saved = scheduler.now();
+        Event second = post(driver, 0);
+        advance(10);
+        Event third = post(driver, 0);
+
+        assertEquals(Arrays.asList(first, second, third), replay(driver, 0));
+        assertEquals(Arrays.asList(second, third), replay(driver, saved));
+        advance(1);
+        assertTrue(replay(driver, -1).isEmpty());
+
+        List<Event> live = new ArrayList<>();
+        driver.observable(saved).subscribe(live::add);
+        Event fourth = post(driver, 0);
+        assertEquals(Arrays.asList(second, third, fourth), live);
+    }
+
+    @Test
+    public void expiresEventsAfterTheTtl() {
+        RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class);
+        post(driver, 0);
+        advance(TTL_MILLIS / 2);
+        Event second = post(driver, 0);
+        advance(TTL_MILLIS / 2 + 1);
+        assertEquals(Arrays.asList(second), replay(driver, 0));
+        advance(TTL_MILLIS);
+        assertTrue(replay(driver, 0).isEmpty());
+    }
+
+    @Test
+    public void dropsTheOldestEventsOverMaxEvents() {
+        RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class,
+                RxBus.ReplayPolicy.<Event>unbounded().maxEvents(2));
+        post(driver, 0);
+        Event second = post(driver, 1);
+        Event third = post(driver, 2);
+        assertEquals(Arrays.asList(second, third), replay(driver, 0));
+    }
+
+    @Test
+    public void dropsTheOldestEventsOverMaxBytes() {
+        RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class,
+                RxBus.ReplayPolicy.<Event>unbounded().maxBytes(10, event -> event.weight));
+        post(driver, 0, 4);
+        Event second = post(driver, 1, 4);
+        Event third = post(driver, 2, 6);
+        assertEquals(Arrays.asList(second, third), replay(driver, 0));
+        // too heavy to keep at all
+        post(driver, 3, 11);
+        assertTrue(replay(driver, 0).isEmpty());
+    }
+
+    @Test
+    public void keepsTheLatestEventPerKey() {
+        RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class,
+                RxBus.ReplayPolicy.<Event>unbounded().coalesceBy(event -> event.key).maxEvents(3));
+        post(driver, 1);
+        Event two = post(driver, 2);
+        Event one = post(driver, 1);
+        Event three = post(driver, 3);
+        // coalesced events don't count towards the cap
+        assertEquals(Arrays.asList(two, one, three), replay(driver, 0));
+        Event four = post(driver, 4);
+        assertEquals(Arrays.asList(one, three, four), replay(driver, 0));
+    }
+
+    @Test
+    public void compactsTombstones() {
+        RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class,
+                RxBus.ReplayPolicy.<Event>unbounded().coalesceBy(event -> event.key));
+        List<Event> latest = new ArrayList<>(Arrays.asList(new Event[4]));
+        for (int i = 0; i < 200; i++) {
+            int key = i % 4;
+            latest.set(key, post(driver, key));
+            advance(1);
+        }
+        assertEquals(latest, replay(driver, 0));
+        // and keeps coalescing correctly after moving events around
+        Event last = post(driver, 0);
+        assertEquals(Arrays.asList(latest.get(1), latest.get(2), latest.get(3), last),
+                replay(driver, 0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsADifferentPolicyForTheSameType() {
+        new RxBus.Driver<>(bus, Event.class, RxBus.ReplayPolicy.<Event>unbounded().maxEvents(1));
+        new RxBus.Driver<>(bus, Event.class, RxBus.ReplayPolicy.<Event>unbounded().maxEvents(2));
+    }
+
+    @Test
+    public void replaysLikeASimpleModel() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            setUp();
+            int maxEvents = 1 + random.nextInt(40);
+            long maxBytes = 10 + random.nextInt(400);
+            int keys = 1 + random.nextInt(20);
+            boolean coalesce = random.nextBoolean();
+            RxBus.ReplayPolicy<Event> policy = RxBus.ReplayPolicy.<Event>unbounded()
+                    .maxEvents(maxEvents)
+                    .maxBytes(maxBytes, event -> event.weight);
+            if (coalesce) {
+                policy = policy.coalesceBy(event -> event.key);
+            }
+            RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class, policy);
+            List<Event> model = new ArrayList<>();
+            List<Long> modelTimes = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                advance(random.nextInt(3) == 0 ? random.nextInt((int) TTL_MILLIS / 4) : 1);
+                Event event = post(driver, random.nextInt(keys), random.nextInt(20));
+
+                expire(model, modelTimes, scheduler.now());
+                if (coalesce) {
+                    for (int j = 0; j < model.size(); j++) {
+                        if (model.get(j).key == event.key) {
+                            model.remove(j);
+                            modelTimes.remove(j);
+                            break;
+                        }
+                    }
+                }
+                model.add(event);
+                modelTimes.add(scheduler.now());
+                while (model.size() > maxEvents || weight(model) > maxBytes) {
+                    model.remove(0);
+                    modelTimes.remove(0);
+                }
+
+                if (random.nextInt(10) == 0) {
+                    long since = Math.max(0, scheduler.now() - random.nextInt((int) TTL_MILLIS));
+                    List<Event> expected = new ArrayList<>();
+                    for (int j = 0; j < model.size(); j++) {
+                        if (modelTimes.get(j) >= since) {
+                            expected.add(model.get(j));
+                        }
+                    }
+                    assertEquals("round " + round + " post " + i, expected, replay(driver, since));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batchesEventsPerWindow() {
+        RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class);
+        TestSubscriber<List<Event>> batches = new TestSubscriber<>();
+        driver.batches(-1, 100, TimeUnit.MILLISECONDS, 3, RxBus.Overflow.ERROR)
+                .subscribe(batches);
+        Event first = post(driver, 0);
+        advance(50);
+        Event second = post(driver, 1);
+        batches.assertNoValues();
+        advance(50);
+        batches.assertValues(Arrays.asList(first, second));
+
+        // a full batch doesn't wait for the window
+        Event third = post(driver, 2);
+        Event fourth = post(driver, 3);
+        Event fifth = post(driver, 4);
+        scheduler.triggerActions();
+        batches.assertValues(Arrays.asList(first, second), Arrays.asList(third, fourth, fifth));
+        batches.assertNoErrors();
+    }
+
+    @Test
+    public void dropsTheOldestWaitingEventOnOverflow() {
+        assertEquals(Arrays.asList(1, 2), keysOfOverflow(RxBus.Overflow.DROP_OLDEST));
+    }
+
+    @Test
+    public void dropsTheLatestEventOnOverflow() {
+        assertEquals(Arrays.asList(0, 1), keysOfOverflow(RxBus.Overflow.DROP_LATEST));
+    }
+
+    @Test
+    public void failsOnOverflow() {
+        RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class);
+        TestSubscriber<List<Event>> batches = new TestSubscriber<>(0);
+        driver.batches(-1, 100, TimeUnit.MILLISECONDS, 2, RxBus.Overflow.ERROR)
+                .subscribe(batches);
+        post(driver, 0);
+        post(driver, 1);
+        post(driver, 2);
+        scheduler.triggerActions();
+        batches.assertError(MissingBackpressureException.class);
+        batches.assertNoValues();
+        // no longer listening
+        post(driver, 3);
+        advance(100);
+        batches.requestMore(1);
+        scheduler.triggerActions();
+        batches.assertNoValues();
+    }
+
+    // keys of the batch a subscriber gets after three events overflow a batch of two
+    private List<Integer> keysOfOverflow(RxBus.Overflow overflow) {
+        RxBus.Driver<Event> driver = new RxBus.Driver<>(bus, Event.class);
+        TestSubscriber<List<Event>> batches = new TestSubscriber<>(0);
+        driver.batches(-1, 100, TimeUnit.MILLISECONDS, 2, overflow).subscribe(batches);
+        post(driver, 0);
+        post(driver, 1);
+        advance(100);
+        post(driver, 2);
+        advance(100);
+        // nothing was requested yet
+        batches.assertNoValues();
+        batches.requestMore(1);
+        scheduler.triggerActions();
+        batches.assertNoErrors();
+        batches.assertValueCount(1);
+        List<Integer> keys = new ArrayList<>();
+        for (Event event : batches.getOnNextEvents().get(0)) {
+            keys.add(event.key);
+        }
+        return keys;
+    }
+
+    private Event post(RxBus.Driver<Event> driver, int key) {
+        return post(driver, key, 1);
+    }
+
+    private Event post(RxBus.Driver<Event> driver, int key, int weight) {
+        Event event = new Event(key, weight, sequence++);
+        driver.post(event);
+        return event;
+    }
+
+    private void advance(long millis) {
+        scheduler.advanceTimeBy(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static List<Event> replay(RxBus.Driver<Event> driver, long since) {
+        List<Event> replayed = new ArrayList<>();
+        // replay is synchronous, so unsubscribing right away leaves just the replayed events
+        driver.observable(since).subscribe(replayed::add).unsubscribe();
+        return replayed;
+    }
+
+    private static void expire(List<Event> model, List<Long> times, long now) {
+        Iterator<Event> events = model.iterator();
+        Iterator<Long> eventTimes = times.iterator();
+        while (eventTimes.hasNext()) {
+            events.next();
+            if (eventTimes.next() < now - TTL_MILLIS) {
+                events.remove();
+                eventTimes.remove();
+            }
+        }
+    }
+
+    private static long weight(List<Event> events) {
+        long weight = 0;
+        for (Event event : events) {
+            weight += event.weight;
+        }
+        return weight;
+    }
+}
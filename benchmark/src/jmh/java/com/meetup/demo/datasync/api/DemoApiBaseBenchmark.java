@@ -0,0 +1,66 @@
+package com.meetup.demo.datasync.api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.schedulers.Schedulers;
+
+/**
+ * Measures page serving in `DemoApiBase.members(int, int)` and lookups in `member(long)` with
+ * `fakeLatency` off and an immediate scheduler, i.e. the cost of the fake backend itself, for
+ * the demo's member count and for load test sized ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DemoApiBaseBenchmark {
+    @Param({"20", "50", "200"})
+    int pageSize;
+
+    @Param({"260", "10000", "100000"})
+    int memberCount;
+
+    DemoApiBase api;
+    int pages;
+    int page;
+    long id;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        api = new DemoApiBase(Schedulers.immediate(), false, memberCount);
+        int total = api.members(0, pageSize).toBlocking().single().meta.getInt("totalMembers");
+        // only cycle through full pages
+        pages = Math.max(1, total / pageSize);
+        page = 0;
+        id = 1;
+    }
+
+    @Benchmark
+    public void members(Blackhole bh) {
+        api.members(page, pageSize).subscribe(bh::consume);
+        page = page + 1 < pages ? page + 1 : 0;
+    }
+
+    // `member(long)` errors at random by design, and removed members error too
+    @Benchmark
+    public void member(Blackhole bh) {
+        api.member(id).subscribe(bh::consume, bh::consume);
+        id = id < memberCount ? id + 1 : 1;
+    }
+}
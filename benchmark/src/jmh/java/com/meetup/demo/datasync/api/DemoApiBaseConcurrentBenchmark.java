@@ -0,0 +1,59 @@
+package com.meetup.demo.datasync.api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.schedulers.Schedulers;
+
+/**
+ * Page reads from one shared `DemoApiBase` on every core, like a parallel load test.  Compare
+ * throughput with `-t 1` to see how reads scale.  Reads still write now and then, since
+ * `DemoApiBase` adds and removes members at random as pages are served.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class DemoApiBaseConcurrentBenchmark {
+    static final int PAGE_SIZE = 50;
+
+    @Param({"260", "100000"})
+    int memberCount;
+
+    DemoApiBase api;
+    int pages;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        api = new DemoApiBase(Schedulers.immediate(), false, memberCount);
+        pages = Math.max(1, memberCount / PAGE_SIZE);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int page;
+    }
+
+    @Benchmark
+    public void members(Cursor cursor, Blackhole bh) {
+        api.members(cursor.page, PAGE_SIZE).subscribe(bh::consume);
+        cursor.page = cursor.page + 1 < pages ? cursor.page + 1 : 0;
+    }
+}
@@ -0,0 +1,132 @@
+package com.meetup.demo.datasync.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding a page of `Member`s with `MemberCodec`, into a heap or a
+ * direct buffer (the latter standing in for the memory mapped files of `DiskPageCache`).
+ *
+ * Setup round-trips every page and member through the codec and fails the trial on any
+ * mismatch, so a broken codec can't produce numbers.  Names are mostly unique like the fake
+ * backend's, with a few repeats and non-ASCII ones mixed in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemberCodecBenchmark {
+    @Param({"20", "50", "200"})
+    int pageSize;
+
+    @Param({"false", "true"})
+    boolean shareNames;
+
+    @Param({"false", "true"})
+    boolean direct;
+
+    MemberCodec codec;
+    List<Member> page;
+    Member member;
+    ByteBuffer pageOut;
+    ByteBuffer pageIn;
+    ByteBuffer memberOut;
+    ByteBuffer memberIn;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        codec = new MemberCodec(shareNames);
+        page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            if (i % 10 == 9) {
+                page.add(new Member(i, "Zoë " + i % 3));
+            } else if (i % 10 == 4) {
+                page.add(new Member(i, null));
+            } else {
+                page.add(Member.dummy(i));
+            }
+        }
+        member = page.get(pageSize - 1);
+
+        int pageBytes = codec.encodedSize(page);
+        pageOut = allocate(pageBytes);
+        pageIn = allocate(pageBytes);
+        codec.encode(page, pageIn);
+        pageIn.flip();
+        check(pageIn.remaining() == pageBytes, "encodedSize doesn't match encode");
+        check(codec.decode(pageIn.duplicate()).equals(page), "page doesn't round-trip");
+
+        int memberBytes = codec.encodedSize(member);
+        memberOut = allocate(memberBytes);
+        memberIn = allocate(memberBytes);
+        for (Member m : page) {
+            ByteBuffer buffer = allocate(codec.encodedSize(m));
+            codec.encode(m, buffer);
+            check(!buffer.hasRemaining(), "encodedSize doesn't match encode");
+            buffer.flip();
+            check(codec.decodeMember(buffer).equals(m), "member doesn't round-trip");
+        }
+        codec.encode(member, memberIn);
+        memberIn.flip();
+    }
+
+    private ByteBuffer allocate(int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer encodePage() {
+        pageOut.clear();
+        codec.encode(page, pageOut);
+        return pageOut;
+    }
+
+    // sizing is part of every write, see `DiskPageCache.write`
+    @Benchmark
+    public ByteBuffer sizeAndEncodePage() {
+        pageOut.clear();
+        pageOut.limit(codec.encodedSize(page));
+        codec.encode(page, pageOut);
+        return pageOut;
+    }
+
+    @Benchmark
+    public List<Member> decodePage() {
+        return codec.decode(pageIn.duplicate());
+    }
+
+    @Benchmark
+    public ByteBuffer encodeMember() {
+        memberOut.clear();
+        codec.encode(member, memberOut);
+        return memberOut;
+    }
+
+    @Benchmark
+    public Member decodeMember() {
+        return codec.decodeMember(memberIn.duplicate());
+    }
+}
@@ -0,0 +1,49 @@
+package com.meetup.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures recording into `Metrics` the way instrumented hot paths do, with the metric looked up
+ * ahead of time.  Values spread over several orders of magnitude so `record` hits many buckets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    Metrics.Counter counter;
+    Metrics.Histogram histogram;
+    long value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Metrics metrics = new Metrics();
+        counter = metrics.counter("counter");
+        histogram = metrics.histogram("histogram");
+    }
+
+    @Benchmark
+    public void increment() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public void record() {
+        value = value * 31 + 7 & 0xfffff;
+        histogram.record(value);
+    }
+}
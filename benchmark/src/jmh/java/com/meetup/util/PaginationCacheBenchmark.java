@@ -0,0 +1,114 @@
+package com.meetup.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+
+/**
+ * Measures the per-bind cost of `PaginationCache`.  Pages are served synchronously from memory
+ * so the numbers reflect the cache and its Rx plumbing only, not data retrieval.
+ *
+ * `get` walks forward through every cached page the way a steady scroll would, so prefetching
+ * kicks in at page edges when `prefetchThreshold` is non-zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaginationCacheBenchmark {
+    static final int MAX_PAGES_CACHED = 3;
+
+    @Param({"20", "50", "200"})
+    int pageSize;
+
+    @Param({"0", "10"})
+    int prefetchThreshold;
+
+    PaginationCache<Integer> cache;
+    int window;
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = new InMemoryCache(pageSize, prefetchThreshold, MAX_PAGES_CACHED);
+        // keep the walk inside what fits in the cache, prefetches included
+        window = pageSize * (MAX_PAGES_CACHED - 1);
+        for (int i = 0; i < window; i++) {
+            cache.get(i).subscribe();
+        }
+        cursor = 0;
+    }
+
+    private int nextIndex() {
+        int index = cursor;
+        cursor = cursor + 1 < window ? cursor + 1 : 0;
+        return index;
+    }
+
+    @Benchmark
+    public void get(Blackhole bh) {
+        cache.get(nextIndex()).subscribe(bh::consume);
+    }
+
+    @Benchmark
+    public Integer getIfPresent() {
+        return cache.getIfPresent(nextIndex());
+    }
+
+    @Benchmark
+    public Integer getOrLoad() {
+        return cache.getOrLoad(nextIndex());
+    }
+
+    @Benchmark
+    public void getPage(Blackhole bh) {
+        cache.getPage(nextIndex() / pageSize).subscribe(bh::consume);
+    }
+
+    @Benchmark
+    public void replace() {
+        int index = nextIndex();
+        cache.replace(index, index);
+    }
+
+    // invalidate, then re-resolve one page so each invocation does comparable work
+    @Benchmark
+    public void invalidateAll(Blackhole bh) {
+        cache.invalidateAll();
+        cache.get(nextIndex()).subscribe(bh::consume);
+    }
+
+    static class InMemoryCache extends PaginationCache<Integer> {
+        InMemoryCache(int pageSize, int prefetchThreshold, int maxPagesCached) {
+            super(pageSize, prefetchThreshold, maxPagesCached);
+        }
+
+        @Override
+        public Observable<List<Integer>> fetchPage(int page) {
+            int start = page * getPageSize();
+            List<Integer> items = new ArrayList<>(getPageSize());
+            for (int i = 0; i < getPageSize(); i++) {
+                items.add(start + i);
+            }
+            return Observable.just(items);
+        }
+    }
+}
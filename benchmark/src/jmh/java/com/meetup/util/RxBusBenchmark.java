@@ -0,0 +1,115 @@
+package com.meetup.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.Subscription;
+import rx.schedulers.TestScheduler;
+import rx.subscriptions.CompositeSubscription;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Measures `RxBus.Driver` throughput with `subscribers` live listeners while the bus holds
+ * `events` events in its replay window, half of them of an unrelated type.
+ *
+ * Time is virtual: each post advances the clock by `TTL / events` so the replay buffer stays at
+ * a steady `events` entries instead of growing for the whole measurement.  With `coalesce`, events
+ * are about one of `KEYS` things and only the latest per key is kept.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RxBusBenchmark {
+    @Param({"1", "8", "64"})
+    int subscribers;
+
+    @Param({"100", "1000", "10000"})
+    int events;
+
+    @Param({"false", "true"})
+    boolean coalesce;
+
+    static final int KEYS = 50;
+
+    TestScheduler scheduler;
+    RxBus bus;
+    RxBus.Driver<Event> driver;
+    RxBus.Driver<Noise> noise;
+    CompositeSubscription subs;
+    long tick;
+    int posted;
+    Event[] keyed = new Event[KEYS];
+
+    @Setup(Level.Iteration)
+    public void setUp(Blackhole bh) {
+        scheduler = new TestScheduler();
+        bus = new RxBus(scheduler);
+        for (int i = 0; i < KEYS; i++) {
+            keyed[i] = new Event(i);
+        }
+        driver = coalesce ?
+                new RxBus.Driver<>(bus, Event.class,
+                        RxBus.ReplayPolicy.<Event>unbounded().coalesceBy(e -> e.key)) :
+                new RxBus.Driver<>(bus, Event.class);
+        noise = new RxBus.Driver<>(bus, Noise.class);
+        tick = TimeUnit.SECONDS.toNanos(RxBus.TTL_SECONDS) / events;
+        for (int i = 0; i < events; i++) {
+            if (i % 2 == 0) {
+                driver.post(keyed[posted++ % KEYS]);
+            } else {
+                noise.post(new Noise());
+            }
+            scheduler.advanceTimeBy(tick, TimeUnit.NANOSECONDS);
+        }
+        subs = Subscriptions.from();
+        for (int i = 0; i < subscribers; i++) {
+            subs.add(driver.observable().subscribe(bh::consume));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        subs.unsubscribe();
+    }
+
+    // one op == one event delivered to every subscriber
+    @Benchmark
+    public void post() {
+        driver.post(keyed[posted++ % KEYS]);
+        scheduler.advanceTimeBy(tick, TimeUnit.NANOSECONDS);
+    }
+
+    // one op == one late subscriber replaying the whole window
+    @Benchmark
+    public void replay(Blackhole bh) {
+        Subscription sub = driver.observable(0L).subscribe(bh::consume);
+        sub.unsubscribe();
+    }
+
+    static class Event {
+        final int key;
+
+        Event(int key) {
+            this.key = key;
+        }
+    }
+
+    static class Noise {}
+}
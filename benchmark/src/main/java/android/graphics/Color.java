@@ -0,0 +1,12 @@
+package android.graphics;
+
+/**
+ * JVM shim with the same packing as the framework class.
+ */
+public final class Color {
+    private Color() {}
+
+    public static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+}
@@ -0,0 +1,37 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM shim: just enough of `Bundle` for API response metadata.
+ */
+public final class Bundle {
+    private final Map<String, Object> map = new HashMap<>();
+
+    public void putInt(String key, int value) {
+        map.put(key, value);
+    }
+
+    public int getInt(String key) {
+        return getInt(key, 0);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        Object value = map.get(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public void putLong(String key, long value) {
+        map.put(key, value);
+    }
+
+    public long getLong(String key) {
+        return getLong(key, 0L);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        Object value = map.get(key);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+}
@@ -0,0 +1,24 @@
+package android.os;
+
+/**
+ * JVM shim so `Parcelable` models compile; nothing here is ever parcelled.
+ */
+public final class Parcel {
+    private Parcel() {}
+
+    public void writeLong(long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeString(String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public long readLong() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String readString() {
+        throw new UnsupportedOperationException();
+    }
+}
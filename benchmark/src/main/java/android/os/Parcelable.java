@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * JVM shim so `Parcelable` models compile; nothing here is ever parcelled.
+ */
+public interface Parcelable {
+    int describeContents();
+
+    void writeToParcel(Parcel dest, int flags);
+
+    interface Creator<T> {
+        T createFromParcel(Parcel source);
+
+        T[] newArray(int size);
+    }
+}
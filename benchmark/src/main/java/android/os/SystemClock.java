@@ -0,0 +1,22 @@
+package android.os;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM shim backed by `System.nanoTime()`.
+ */
+public final class SystemClock {
+    private SystemClock() {}
+
+    public static long elapsedRealtime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    public static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}